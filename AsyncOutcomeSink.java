@@ -0,0 +1,204 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutcomeSink that copies each event into a ring buffer and returns.
+ * A background thread drains whatever has accumulated, writes it as
+ * one batch of lines and flushes once per batch. Lines are the same
+ * as OutcomeSink.CONSOLE prints; a file sink also starts each with
+ * the publish time in ms. When the ring is full, publishers wait for
+ * the writer to catch up. Lines appear some time after publish
+ * returns, so they may come after output the caller prints later.
+ */
+public class AsyncOutcomeSink implements OutcomeSink, AutoCloseable {
+
+    private static final int DEFAULT_BUFFER = 8192;
+    private static AsyncOutcomeSink console;
+
+    private final String[] names;
+    private final int[] investments;
+    private final long[] times;
+    private final Outcome[] outcomes;
+    private final long[] timestamps;
+    private final int mask;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /**
+     * Events head..tail-1 are waiting to be written. Guarded by lock.
+     */
+    private long head;
+    private long tail;
+    private boolean closed;
+
+    private final Writer out;
+    private final boolean ownsStream;
+    private final boolean timestamped;
+    private final Thread writer;
+    private volatile IOException failure;
+
+    public AsyncOutcomeSink(OutputStream out) {
+        this(out, DEFAULT_BUFFER, false);
+    }
+
+    /**
+     * Append timestamped events to the given file.
+     */
+    public AsyncOutcomeSink(Path file) throws IOException {
+        this(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                DEFAULT_BUFFER, true, true);
+    }
+
+    /**
+     * bufferSize is rounded up to a power of two.
+     * If ownsStream is true, close also closes out.
+     */
+    public AsyncOutcomeSink(OutputStream out, int bufferSize, boolean ownsStream) {
+        this(out, bufferSize, ownsStream, false);
+    }
+
+    private AsyncOutcomeSink(OutputStream out, int bufferSize, boolean ownsStream, boolean timestamped) {
+        int length = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+        this.names = new String[length];
+        this.investments = new int[length];
+        this.times = new long[length];
+        this.outcomes = new Outcome[length];
+        this.timestamps = new long[length];
+        this.mask = length - 1;
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.ownsStream = ownsStream;
+        this.timestamped = timestamped;
+        this.writer = new Thread(this::drain, "outcome-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Return the shared sink writing to System.out.
+     * It is flushed when the JVM shuts down.
+     */
+    public static synchronized AsyncOutcomeSink console() {
+        if (console == null) {
+            AsyncOutcomeSink sink = new AsyncOutcomeSink(System.out);
+            Runtime.getRuntime().addShutdownHook(new Thread(sink::close));
+            console = sink;
+        }
+        return console;
+    }
+
+    public void publish(Customer c, Outcome outcome) {
+        long timestamp = System.currentTimeMillis();
+        lock.lock();
+        try {
+            while (tail - head > mask && !closed) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                throw new IllegalStateException("Sink is closed");
+            }
+            int slot = (int) tail & mask;
+            names[slot] = c.name();
+            investments[slot] = c.investment();
+            times[slot] = c.time_in();
+            outcomes[slot] = outcome;
+            timestamps[slot] = timestamp;
+            if (tail++ == head) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writer loop: take everything published so far, write it outside
+     * the lock, then free those slots.
+     */
+    private void drain() {
+        while (true) {
+            long from;
+            long to;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    return;
+                }
+                from = head;
+                to = tail;
+            } finally {
+                lock.unlock();
+            }
+            write(from, to);
+            lock.lock();
+            try {
+                for (long i = from; i < to; i++) {
+                    names[(int) i & mask] = null;
+                }
+                head = to;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(long from, long to) {
+        try {
+            for (long i = from; i < to; i++) {
+                int slot = (int) i & mask;
+                if (timestamped) {
+                    out.write(Long.toString(timestamps[slot]));
+                    out.write(' ');
+                }
+                out.write(outcomes[slot].describe(names[slot], investments[slot], times[slot]));
+                out.write(System.lineSeparator());
+            }
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Write out everything published so far and stop the writer.
+     * Throws if any write failed.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+            if (ownsStream) {
+                out.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+}
@@ -0,0 +1,1478 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.management.ObjectName;
+
+/**
+ * Micro and macro benchmarks for the Credit Union data structures.
+ * Run with: java Benchmark [suite ...]
+ * With no arguments every suite is run. Besides time per op, each
+ * measurement reports bytes allocated per op on the measuring thread
+ * and the GC count and time spent while it ran.
+ */
+public class Benchmark {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 5;
+    private static final String[] SUITES = {
+        "hash", "resize", "index", "heap", "queues", "update", "arity", "compare",
+        "batch", "creditunion", "macro", "concurrent", "sink", "wal", "mapped", "random", "simulation",
+        "metrics", "expire", "topk", "router", "server",
+        "names", "trace", "managers", "stats", "snapshot"
+    };
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Results are folded in here so the JIT cannot drop the work.
+     */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        List<String> suites = Arrays.asList(args.length == 0 ? SUITES : args);
+        for (String suite : suites) {
+            switch (suite) {
+                case "hash" -> hash();
+                case "resize" -> resize();
+                case "index" -> index();
+                case "heap" -> heap();
+                case "queues" -> queues();
+                case "update" -> update();
+                case "arity" -> arity();
+                case "compare" -> compare();
+                case "batch" -> batch();
+                case "creditunion" -> creditUnion();
+                case "macro" -> macro();
+                case "concurrent" -> concurrent();
+                case "sink" -> sink();
+                case "wal" -> wal();
+                case "mapped" -> mapped();
+                case "random" -> random();
+                case "simulation" -> simulation();
+                case "metrics" -> metrics();
+                case "expire" -> expire();
+                case "topk" -> topK();
+                case "router" -> router();
+                case "server" -> server();
+                case "names" -> names();
+                case "trace" -> trace();
+                case "managers" -> managers();
+                case "stats" -> stats();
+                case "snapshot" -> snapshot();
+                default -> System.out.println("Unknown suite " + suite);
+            }
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /**
+     * A single benchmarked operation. i counts up from 0.
+     */
+    interface Op {
+        long run(int i) throws Exception;
+    }
+
+    /**
+     * Run op ops times per iteration and report the mean ns/op,
+     * allocated bytes/op and GC activity over the measured iterations.
+     */
+    static void measure(String label, int ops, Op op) throws Exception {
+        for (int w = 0; w < WARMUP; w++) {
+            for (int i = 0; i < ops; i++) {
+                sink += op.run(i);
+            }
+        }
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long allocated = allocatedBytes();
+        long total = 0;
+        for (int it = 0; it < ITERATIONS; it++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += op.run(i);
+            }
+            total += System.nanoTime() - start;
+        }
+        allocated = allocatedBytes() - allocated;
+        double nsPerOp = (double) total / ITERATIONS / ops;
+        System.out.printf("%-48s %10.1f ns/op %10.1f B/op %5d gc %6d gc ms%n", label, nsPerOp,
+                (double) allocated / ITERATIONS / ops, gcCount() - gcCount, gcTime() - gcTime);
+    }
+
+    /**
+     * Bytes allocated so far by the current thread.
+     */
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Names of the form "customer<n>" with random n.
+     */
+    static String[] names(int count, long seed) {
+        Random random = new Random(seed);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "customer" + random.nextInt(Integer.MAX_VALUE);
+        }
+        return names;
+    }
+
+    /**
+     * Fast vs keyed hashing, alone and behind CBlockChain.get.
+     * The SHA-256 + hex hash CBlockChain used to run is kept as a baseline.
+     */
+    static void hash() throws Exception {
+        String[] names = names(4096, 1);
+        int mask = names.length - 1;
+        int ops = 1 << 18;
+        MessageDigest legacy = MessageDigest.getInstance("SHA-256");
+        HashStrategy murmur = new MurmurHash();
+        HashStrategy secure = new SecureHash();
+        measure("hash: sha256+hex (old)", ops, i -> legacyHash(legacy, names[i & mask]));
+        measure("hash: murmur", ops, i -> murmur.hash(names[i & mask]));
+        measure("hash: keyed sha256", ops, i -> secure.hash(names[i & mask]));
+
+        CBlockChain fast = new CBlockChain(names.length, murmur);
+        CBlockChain keyed = new CBlockChain(names.length, secure);
+        for (int i = 0; i < names.length; i++) {
+            fast.put(new Customer(names[i], i, i));
+            keyed.put(new Customer(names[i], i, i));
+        }
+        measure("CBlockChain.get: murmur", ops, i -> fast.get(names[i & mask]).time_in());
+        measure("CBlockChain.get: keyed sha256", ops, i -> keyed.get(names[i & mask]).time_in());
+    }
+
+    private static long legacyHash(MessageDigest message, String key) throws NoSuchAlgorithmException {
+        message.update(key.getBytes());
+        byte[] bytes = message.digest();
+        StringBuilder string = new StringBuilder();
+        for (byte b : bytes) {
+            string.append(String.format("%02x", b & 0xff));
+        }
+        return string.toString().hashCode();
+    }
+
+    /**
+     * Grow a CBlockChain from 16 buckets to a million entries and
+     * report the tail of single put latencies, which a full rehash
+     * would dominate. The maximum also includes GC pauses.
+     */
+    static void resize() throws Exception {
+        String[] names = names(1 << 20, 2);
+        long[] latencies = new long[names.length];
+        for (int round = 0; round < WARMUP + 1; round++) {
+            CBlockChain chain = new CBlockChain(16);
+            for (int i = 0; i < names.length; i++) {
+                long t = System.nanoTime();
+                chain.put(new Customer(names[i], i, i));
+                latencies[i] = System.nanoTime() - t;
+            }
+            if (round == WARMUP) {
+                Arrays.sort(latencies);
+                System.out.printf("%-48s %10d ns%n", "CBlockChain.put: p50 growing from 16",
+                        latencies[latencies.length / 2]);
+                System.out.printf("%-48s %10d ns%n", "CBlockChain.put: p99.99",
+                        latencies[(int) (latencies.length * 0.9999)]);
+                System.out.printf("%-48s %10d ns%n", "CBlockChain.put: max",
+                        latencies[latencies.length - 1]);
+                System.out.printf("%-48s %10.3f / %d%n", "CBlockChain: load factor / max chain",
+                        chain.loadFactor(), chain.maxChainLength());
+            }
+            sink += chain.size();
+        }
+    }
+
+    /**
+     * Chaining vs open addressing: retained heap per Customer
+     * and lookup latency for hits and misses.
+     */
+    static void index() throws Exception {
+        int count = 1 << 20;
+        String[] names = names(count, 3);
+        String[] missing = names(4096, 4);
+        Customer[] customers = new Customer[count];
+        for (int i = 0; i < count; i++) {
+            customers[i] = new Customer(names[i], i, i);
+        }
+        int mask = 4096 - 1;
+        int ops = 1 << 18;
+        for (String layout : new String[] {"chaining", "open addressing", "interned ids"}) {
+            long before = usedMemory();
+            CustomerIndex index = switch (layout) {
+                case "chaining" -> new CBlockChain(count);
+                case "open addressing" -> new OpenCBlockChain(count);
+                default -> new IdIndex(count);
+            };
+            for (Customer c : customers) {
+                index.put(c);
+            }
+            long bytes = usedMemory() - before;
+            System.out.printf("%-48s %10.1f bytes/customer%n", layout + ": footprint", (double) bytes / count);
+            measure(layout + ": get hit", ops, i -> index.get(names[(i * 257) & (count - 1)]).time_in());
+            measure(layout + ": get miss", ops, i -> index.get(missing[i & mask]) == null ? 0 : 1);
+            sink += index.size();
+        }
+    }
+
+    /**
+     * Heap in use after a few GCs.
+     */
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * delMax + insert on a queue holding 1000 customers while the
+     * capacity grows from 1e3 to 1e7. The cost per op should stay flat.
+     */
+    static void heap() throws Exception {
+        int held = 1000;
+        String[] names = names(held, 5);
+        for (int capacity = 1000; capacity <= 10_000_000; capacity *= 10) {
+            NewCustomerQueue queue = new NewCustomerQueue(capacity);
+            CustomerQueue plain = new CustomerQueue(capacity);
+            Random random = new Random(6);
+            for (int i = 0; i < held; i++) {
+                queue.insert(new Customer(names[i], random.nextInt(1000), i));
+                plain.insert(new Customer(names[i], random.nextInt(1000), i));
+            }
+            int[] investments = random.ints(1024, 0, 1000).toArray();
+            measure("NewCustomerQueue delMax+insert, cap " + capacity, 1 << 16, i -> {
+                Customer c = queue.delMax();
+                c.setInvestment(investments[i & 1023]);
+                return queue.insert(c);
+            });
+            measure("CustomerQueue delMax+insert, cap " + capacity, 1 << 16, i -> {
+                Customer c = plain.delMax();
+                c.setInvestment(investments[i & 1023]);
+                return plain.insert(c);
+            });
+        }
+    }
+
+    /**
+     * CustomerQueue (no index) against NewCustomerQueue (indexed) for
+     * delMax + insert with 1e3 to 1e6 customers queued.
+     */
+    static void queues() throws Exception {
+        int[] investments = new Random(15).ints(4096, 0, 1_000_000).toArray();
+        for (int size = 1000; size <= 1_000_000; size *= 10) {
+            int held = size;
+            String[] names = names(held, 16);
+            CustomerQueue plain = new CustomerQueue(held);
+            NewCustomerQueue indexed = new NewCustomerQueue(held);
+            for (int i = 0; i < held; i++) {
+                plain.insert(new Customer(names[i], investments[i & 4095], i));
+                indexed.insert(new Customer(names[i], investments[i & 4095], i));
+            }
+            measure("CustomerQueue delMax+insert, " + held + " held", 1 << 18, i -> {
+                Customer c = plain.delMax();
+                c.setInvestment(investments[i & 4095]);
+                return plain.insert(c);
+            });
+            measure("NewCustomerQueue delMax+insert, " + held + " held", 1 << 18, i -> {
+                Customer c = indexed.delMax();
+                c.setInvestment(investments[i & 4095]);
+                return indexed.insert(c);
+            });
+            measure("NewCustomerQueue remove+insert, " + held + " held", 1 << 18, i -> {
+                Customer c = indexed.remove(names[(i * 31) % held]);
+                return indexed.insert(c);
+            });
+        }
+    }
+
+    /**
+     * Changing one customer's investment: remove + insert (the old
+     * update) vs an in-place sift, and a batch of updates at once.
+     */
+    static void update() throws Exception {
+        int held = 100_000;
+        String[] names = names(held, 7);
+        NewCustomerQueue queue = new NewCustomerQueue(held);
+        Random random = new Random(8);
+        for (int i = 0; i < held; i++) {
+            queue.insert(new Customer(names[i], random.nextInt(1_000_000), i));
+        }
+        int[] investments = random.ints(4096, 0, 1_000_000).toArray();
+        int ops = 1 << 18;
+        measure("update: remove + insert", ops, i -> {
+            Customer c = queue.remove(names[(i * 31) % held]);
+            c.setInvestment(investments[i & 4095]);
+            return queue.insert(c);
+        });
+        measure("update: in place by name", ops, i -> {
+            queue.update(names[(i * 31) % held], investments[i & 4095]);
+            return 0;
+        });
+        Map<String, Integer> batch = new HashMap<>();
+        for (int i = 0; i < held / 4; i++) {
+            batch.put(names[random.nextInt(held)], investments[i & 4095]);
+        }
+        measure("updateAll: batch of " + batch.size(), 16,
+                i -> queue.updateAll(batch));
+    }
+
+    /**
+     * An insert / delMax / update mix on a million queued customers
+     * for heaps with 2, 4 and 8 children per node.
+     */
+    static void arity() throws Exception {
+        int held = 1 << 20;
+        String[] names = names(held, 9);
+        int[] investments = new Random(10).ints(4096, 0, 1_000_000).toArray();
+        for (int arity : new int[] {2, 4, 8}) {
+            NewCustomerQueue queue = new NewCustomerQueue(held, new OpenCBlockChain(held), arity);
+            for (int i = 0; i < held; i++) {
+                queue.insert(new Customer(names[i], investments[i & 4095], i));
+            }
+            measure("d=" + arity + ": delMax + insert", 1 << 18, i -> {
+                Customer c = queue.delMax();
+                c.setInvestment(investments[i & 4095]);
+                return queue.insert(c);
+            });
+            measure("d=" + arity + ": update", 1 << 18, i -> {
+                queue.update(names[(i * 31) & (held - 1)], investments[(i * 7) & 4095]);
+                return 0;
+            });
+        }
+    }
+
+    /**
+     * The packed-key compareTo against the old investment subtraction
+     * plus time_in tie-break, over customers with many equal investments.
+     */
+    static void compare() throws Exception {
+        Customer[] customers = new Customer[4096];
+        Random random = new Random(11);
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Customer("c" + i, random.nextInt(16), i);
+        }
+        int mask = customers.length - 1;
+        int ops = 1 << 22;
+        measure("compare: subtract + tie-break (old)", ops, i -> {
+            Customer a = customers[i & mask];
+            Customer b = customers[(i * 31 + 7) & mask];
+            long diff = a.investment() - b.investment();
+            if (diff == 0) {
+                diff = b.time_in() - a.time_in();
+            }
+            return diff > 0 ? 1 : 0;
+        });
+        measure("compare: packed key", ops,
+                i -> customers[i & mask].compareTo(customers[(i * 31 + 7) & mask]) > 0 ? 1 : 0);
+    }
+
+    /**
+     * Opening time: admit 100k walk-ins into an empty CreditUnion
+     * one process call at a time vs one processBatch call, with random
+     * investments and with rising ones (every insert sifts to the top).
+     */
+    static void batch() throws Exception {
+        int count = 100_000;
+        String[] names = names(count, 12);
+        Random random = new Random(13);
+        for (String order : new String[] {"random", "rising"}) {
+            List<Map.Entry<String, Integer>> arrivals = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int investment = order.equals("random") ? random.nextInt(1_000_000) : i;
+                arrivals.add(Map.entry(names[i], investment));
+            }
+            measure(order + ": process x " + count, 8, r -> {
+                CreditUnion cu = new CreditUnion(count, Integer.MAX_VALUE, OutcomeSink.NONE);
+                for (Map.Entry<String, Integer> arrival : arrivals) {
+                    cu.process(arrival.getKey(), arrival.getValue());
+                }
+                return cu.processed();
+            });
+            measure(order + ": processBatch of " + count, 8, r -> {
+                CreditUnion cu = new CreditUnion(count, Integer.MAX_VALUE, OutcomeSink.NONE);
+                return cu.processBatch(arrivals).size();
+            });
+        }
+    }
+
+    /**
+     * Each CreditUnion operation on its own, with 100k customers waiting.
+     */
+    static void creditUnion() throws Exception {
+        int held = 100_000;
+        String[] names = names(2 * held, 17);
+        int[] investments = new Random(18).ints(4096, 1, 1_000_000).toArray();
+        CreditUnion cu = new CreditUnion(2 * held, Integer.MAX_VALUE, OutcomeSink.NONE);
+        for (int i = 0; i < held; i++) {
+            cu.process(names[i], investments[i & 4095]);
+        }
+        int ops = 1 << 16;
+        measure("CreditUnion.process + seeNext", ops, i -> {
+            cu.process(names[held + (i % held)], investments[i & 4095]);
+            return cu.seeNext().length();
+        });
+        measure("CreditUnion.handle_emergency", ops,
+                i -> cu.handle_emergency(names[(i * 31) % (2 * held)]) ? 1 : 0);
+        measure("CreditUnion.walk_out + process", ops, i -> {
+            String name = names[(i * 31) % (2 * held)];
+            cu.walk_out(name);
+            return cu.process(name, investments[i & 4095]) == null ? 0 : 1;
+        });
+    }
+
+    /**
+     * Replays arrival / service / emergency / walk-out mixes against a
+     * CreditUnion that starts half full, at several queue sizes.
+     * Names are drawn from a pool twice the capacity, so emergencies and
+     * walk-outs hit waiting customers about half the time.
+     */
+    static void macro() throws Exception {
+        String[] mixes = {"opening", "steady", "emergencies"};
+        int[][] weights = {{80, 10, 5, 5}, {40, 40, 15, 5}, {30, 30, 35, 5}};
+        for (int capacity = 1000; capacity <= 1_000_000; capacity *= 10) {
+            String[] names = names(2 * capacity, 19);
+            int[] investments = new Random(20).ints(4096, 1, 1_000_000).toArray();
+            for (int m = 0; m < mixes.length; m++) {
+                CreditUnion cu = new CreditUnion(capacity, 950_000, OutcomeSink.NONE);
+                List<Map.Entry<String, Integer>> opening = new ArrayList<>();
+                for (int i = 0; i < capacity / 2; i++) {
+                    opening.add(Map.entry(names[i], investments[i & 4095]));
+                }
+                cu.processBatch(opening);
+                int[] mix = weights[m];
+                Random random = new Random(21);
+                int poolSize = names.length;
+                measure(mixes[m] + " mix, capacity " + capacity, 1 << 16, i -> {
+                    int roll = random.nextInt(100);
+                    String name = names[random.nextInt(poolSize)];
+                    if (roll < mix[0]) {
+                        return cu.process(name, investments[i & 4095]) == null ? 0 : 1;
+                    } else if (roll < mix[0] + mix[1]) {
+                        return cu.seeNext() == null ? 0 : 1;
+                    } else if (roll < mix[0] + mix[1] + mix[2]) {
+                        return cu.handle_emergency(name) ? 1 : 0;
+                    }
+                    cu.walk_out(name);
+                    return 0;
+                });
+            }
+        }
+    }
+
+    /**
+     * Throughput of ConcurrentCreditUnion under a process / seeNext /
+     * handle_emergency / walk_out mix at 1 to 8 threads. Afterwards the
+     * counters and queue size are checked against what the threads did.
+     * The whole sweep runs twice unreported first, so the JIT has
+     * compiled everything before the 1 thread run is timed.
+     */
+    static void concurrent() throws Exception {
+        int opsPerThread = 200_000;
+        String[] names = names(1 << 16, 14);
+        for (int round = 0; round < 3; round++) {
+            boolean warmup = round < 2;
+            for (int threads = 1; threads <= 8; threads *= 2) {
+                ConcurrentCreditUnion cu = new ConcurrentCreditUnion(50_000, 900_000, OutcomeSink.NONE);
+                AtomicLong processCalls = new AtomicLong();
+                Thread[] workers = new Thread[threads];
+                Throwable[] failure = new Throwable[1];
+                for (int t = 0; t < threads; t++) {
+                    long seed = t;
+                    workers[t] = new Thread(() -> {
+                        Random random = new Random(seed);
+                        try {
+                            for (int i = 0; i < opsPerThread; i++) {
+                                String name = names[random.nextInt(names.length)];
+                                int op = random.nextInt(10);
+                                if (op < 5) {
+                                    cu.process(name, random.nextInt(1_000_000));
+                                    processCalls.incrementAndGet();
+                                } else if (op < 7) {
+                                    cu.seeNext();
+                                } else if (op < 9) {
+                                    cu.handle_emergency(name);
+                                } else {
+                                    cu.walk_out(name);
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure[0] = e;
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread worker : workers) {
+                    worker.start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (failure[0] != null) {
+                    throw new IllegalStateException("Worker failed", failure[0]);
+                }
+                if (!warmup) {
+                    System.out.printf("%-48s %10.0f ops/s%n", "ConcurrentCreditUnion, " + threads + " threads",
+                            threads * opsPerThread * 1e9 / elapsed);
+                }
+
+                int waiting = cu.size();
+                if (cu.processed() != processCalls.get() || waiting < 0 || waiting > cu.capacity()) {
+                    throw new IllegalStateException("Counters out of step: processed " + cu.processed()
+                            + " of " + processCalls.get() + ", waiting " + waiting);
+                }
+                int drained = 0;
+                while (cu.seeNext() != null) {
+                    drained++;
+                }
+                if (drained != waiting || cu.size() != 0) {
+                    throw new IllegalStateException("Drained " + drained + " of " + waiting);
+                }
+                sink += drained;
+            }
+        }
+    }
+
+    /**
+     * Cost of reporting one routed Customer: the old println,
+     * the asynchronous sink and the no-op sink. Output is discarded.
+     */
+    static void sink() throws Exception {
+        Customer c = new Customer("customer", 1000, 1);
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        int ops = 1 << 20;
+        measure("println (old)", ops, i -> {
+            discard.println("Customer " + c + " sent to Bank.");
+            return 0;
+        });
+        try (AsyncOutcomeSink async = new AsyncOutcomeSink(OutputStream.nullOutputStream())) {
+            measure("AsyncOutcomeSink.publish", ops, i -> {
+                async.publish(c, Outcome.SENT_TO_BANK);
+                return 0;
+            });
+        }
+        measure("OutcomeSink.NONE", ops, i -> {
+            OutcomeSink.NONE.publish(c, Outcome.SENT_TO_BANK);
+            return 0;
+        });
+    }
+
+    /**
+     * Journaled CreditUnion throughput at several group commit sizes,
+     * then recovery time from a snapshot of 100k waiting customers
+     * plus a 100k record log tail.
+     */
+    static void wal() throws Exception {
+        String[] names = names(1 << 16, 22);
+        int[] investments = new Random(23).ints(4096, 1, 1_000_000).toArray();
+        for (int batch : new int[] {1, 16, 256, 4096}) {
+            Path dir = Files.createTempDirectory("wal");
+            try (CreditUnionJournal journal = new CreditUnionJournal(dir, batch)) {
+                CreditUnion cu = new CreditUnion(50_000, 950_000, OutcomeSink.NONE, journal);
+                int ops = batch == 1 ? 2000 : 100_000;
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    if (i % 3 == 2) {
+                        cu.seeNext();
+                    } else {
+                        cu.process(names[i & 0xffff], investments[i & 4095]);
+                    }
+                }
+                journal.sync();
+                System.out.printf("%-48s %10.0f ops/s%n", "journaled ops, group commit " + batch,
+                        ops * 1e9 / (System.nanoTime() - start));
+            } finally {
+                delete(dir);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("wal");
+        try {
+            try (CreditUnionJournal journal = new CreditUnionJournal(dir, 4096)) {
+                CreditUnion cu = new CreditUnion(200_000, 950_000, OutcomeSink.NONE, journal);
+                for (int i = 0; i < 100_000; i++) {
+                    cu.process("customer" + i, investments[i & 4095]);
+                }
+                cu.snapshot();
+                for (int i = 0; i < 100_000; i++) {
+                    if (i % 2 == 0) {
+                        cu.seeNext();
+                    } else {
+                        cu.process("late" + i, investments[i & 4095]);
+                    }
+                }
+            }
+            for (int round = 0; round <= WARMUP; round++) {
+                long start = System.nanoTime();
+                try (CreditUnionJournal journal = new CreditUnionJournal(dir, 4096)) {
+                    CreditUnion cu = new CreditUnion(200_000, 950_000, OutcomeSink.NONE, journal);
+                    sink += cu.processed();
+                }
+                if (round == WARMUP) {
+                    System.out.printf("%-48s %10.1f ms%n", "recover 100k snapshot + 100k log",
+                            (System.nanoTime() - start) / 1e6);
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * A million queued customers on the Java heap (NewCustomerQueue)
+     * vs in a mapped file (MappedCustomerQueue): retained heap,
+     * delMax + insert and update cost, and the time to reopen the file.
+     */
+    static void mapped() throws Exception {
+        int held = 1 << 20;
+        String[] names = names(held, 24);
+        int[] investments = new Random(25).ints(4096, 1, 1_000_000).toArray();
+
+        long before = usedMemory();
+        NewCustomerQueue onHeap = new NewCustomerQueue(held);
+        for (int i = 0; i < held; i++) {
+            onHeap.insert(new Customer(names[i], investments[i & 4095], i));
+        }
+        System.out.printf("%-48s %10.1f MB%n", "NewCustomerQueue: heap retained",
+                (usedMemory() - before) / 1e6);
+        measure("NewCustomerQueue: delMax + insert", 1 << 16, i -> {
+            Customer c = onHeap.delMax();
+            c.setInvestment(investments[i & 4095]);
+            return onHeap.insert(c);
+        });
+        measure("NewCustomerQueue: update", 1 << 16, i -> {
+            onHeap.update(names[(i * 31) & (held - 1)], investments[(i * 7) & 4095]);
+            return 0;
+        });
+
+        Path dir = Files.createTempDirectory("mapped");
+        Path file = dir.resolve("queue");
+        try {
+            before = usedMemory();
+            MappedCustomerQueue mapped = new MappedCustomerQueue(file, held);
+            for (int i = 0; i < held; i++) {
+                mapped.insert(new Customer(names[i], investments[i & 4095], i));
+            }
+            System.out.printf("%-48s %10.1f MB%n", "MappedCustomerQueue: heap retained",
+                    (usedMemory() - before) / 1e6);
+            measure("MappedCustomerQueue: delMax + insert", 1 << 16, i -> {
+                Customer c = mapped.delMax();
+                c.setInvestment(investments[i & 4095]);
+                return mapped.insert(c);
+            });
+            measure("MappedCustomerQueue: update", 1 << 16, i -> {
+                mapped.update(names[(i * 31) & (held - 1)], investments[(i * 7) & 4095]);
+                return 0;
+            });
+            mapped.close();
+            long start = System.nanoTime();
+            MappedCustomerQueue reopened = new MappedCustomerQueue(file, held);
+            sink += reopened.getMax().time_in();
+            System.out.printf("%-48s %10.1f ms%n", "MappedCustomerQueue: reopen " + reopened.size(),
+                    (System.nanoTime() - start) / 1e6);
+            reopened.close();
+        } finally {
+            delete(dir);
+        }
+        // Keeps the on-heap queue reachable while the mapped one is measured
+        sink += onHeap.size();
+    }
+
+    /**
+     * The emergency dice: a new Random per call (old handle_emergency)
+     * vs a reused SplittableRandom, then an emergency-heavy run twice
+     * with the same seed to check it replays, and its throughput on
+     * ConcurrentCreditUnion at 1 to 4 threads.
+     */
+    static void random() throws Exception {
+        int ops = 1 << 20;
+        measure("emergency draw: new Random()", ops, i -> {
+            Random random = new Random();
+            return (long) (random.nextDouble() * 100) + random.nextInt(10);
+        });
+        SplittableRandom splittable = new SplittableRandom(26);
+        measure("emergency draw: SplittableRandom", ops,
+                i -> (long) (splittable.nextDouble() * 100) + splittable.nextInt(10));
+
+        String[] names = names(10_000, 27);
+        String[] runs = new String[2];
+        for (int run = 0; run < 2; run++) {
+            CreditUnion cu = new CreditUnion(5_000, 900_000, OutcomeSink.NONE);
+            cu.setSeed(42);
+            Random workload = new Random(28);
+            for (int i = 0; i < 200_000; i++) {
+                String name = names[workload.nextInt(names.length)];
+                if (workload.nextInt(3) == 0) {
+                    cu.process(name, workload.nextInt(1_000_000));
+                } else {
+                    cu.handle_emergency(name);
+                }
+            }
+            runs[run] = cu.sentToBank() + "/" + cu.walkedOut() + "/" + cu.seeNext();
+        }
+        System.out.printf("%-48s %10s%n", "seeded emergency runs replay", runs[0].equals(runs[1]));
+
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            ConcurrentCreditUnion cu = new ConcurrentCreditUnion(5_000, 900_000, OutcomeSink.NONE);
+            cu.setSeed(42);
+            for (int i = 0; i < 5_000; i++) {
+                cu.process(names[i], 1 + i);
+            }
+            int opsPerThread = 200_000;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < opsPerThread; i++) {
+                            cu.handle_emergency(names[(i * 7 + offset) % 5_000]);
+                        }
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            System.out.printf("%-48s %10.0f ops/s%n", "concurrent emergencies, " + threads + " threads",
+                    threads * opsPerThread * 1e9 / (System.nanoTime() - start));
+            sink += cu.walkedOut();
+        }
+    }
+
+    /**
+     * Simulated branch days: a quiet day, a rush with too few managers,
+     * and a long day with millions of arrivals, run one after another
+     * and then all at once on the common pool.
+     */
+    static void simulation() throws Exception {
+        Scenario quiet = new Scenario("quiet", 1_000, 900_000, 4, 8 * 60);
+        quiet.setArrivals(Distribution.exponential(2));
+        Scenario rush = new Scenario("rush", 200, 900_000, 2, 8 * 60);
+        rush.setArrivals(Distribution.exponential(0.1));
+        rush.setPatience(Distribution.exponential(20));
+        Scenario long_day = new Scenario("long day", 100_000, 900_000, 50, 8 * 60);
+        long_day.setArrivals(Distribution.exponential(0.0002));
+        long_day.setEmergencies(Distribution.exponential(0.01));
+        List<Scenario> scenarios = List.of(quiet, rush, long_day);
+
+        for (Scenario scenario : scenarios) {
+            SimulationReport first = new BranchSimulation(scenario).run();
+            SimulationReport second = new BranchSimulation(scenario).run();
+            System.out.println(second);
+            System.out.printf("%-48s %10s%n", scenario.name() + " replays",
+                    first.served() == second.served() && first.walkedOut() == second.walkedOut()
+                            && first.waitP99() == second.waitP99());
+        }
+        long start = System.nanoTime();
+        long events = 0;
+        for (SimulationReport report : BranchSimulation.runAll(scenarios)) {
+            events += report.events();
+        }
+        System.out.printf("%-48s %10.0f events/s%n", "all scenarios in parallel",
+                events * 1e9 / (System.nanoTime() - start));
+    }
+
+    /**
+     * Cost of a histogram recording, then the creditunion suite's
+     * operations with whatever -Dcreditunion.metrics this JVM has; run
+     * once with and once without it to see the instrumentation cost.
+     * When enabled, the metrics are also read back through JMX.
+     */
+    static void metrics() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        measure("LatencyHistogram.recordSince", 1 << 22, i -> {
+            histogram.recordSince(i);
+            return histogram.count();
+        });
+        System.out.printf("%-48s %10s%n", "metrics enabled", CreditUnionMetrics.ENABLED);
+        creditUnion();
+
+        CreditUnion cu = new CreditUnion(10_000, 900_000, OutcomeSink.NONE);
+        String[] names = names(20_000, 29);
+        Random random = new Random(30);
+        for (int i = 0; i < 200_000; i++) {
+            String name = names[random.nextInt(names.length)];
+            switch (random.nextInt(4)) {
+                case 0 -> cu.process(name, random.nextInt(1_000_000));
+                case 1 -> cu.seeNext();
+                case 2 -> cu.handle_emergency(name);
+                default -> cu.walk_out(name);
+            }
+        }
+        if (cu.metrics() != null) {
+            System.out.println(cu.metrics());
+            ObjectName name = cu.metrics().register("benchmark");
+            Object depth = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "QueueDepth");
+            System.out.printf("%-48s %10s%n", "JMX QueueDepth", depth);
+            Object probes = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "IndexProbeLengths");
+            System.out.printf("%-48s %10s%n", "JMX IndexProbeLengths", Arrays.toString((int[]) probes));
+        }
+    }
+
+    /**
+     * Arrival-order tracking: its cost on insert + delMax, finding the
+     * longest-waiting Customer by scanning the heap vs oldest(), and
+     * expiring the oldest half by one remove per Customer vs
+     * expireOlderThan.
+     */
+    static void expire() throws Exception {
+        int n = 200_000;
+        String[] names = names(2 * n, 31);
+        int[] investments = new Random(32).ints(4096, 1, 1_000_000).toArray();
+        for (boolean track : new boolean[] {false, true}) {
+            NewCustomerQueue queue = new NewCustomerQueue(2 * n, new CBlockChain(2 * n), 2, track);
+            for (int i = 0; i < n; i++) {
+                queue.insert(new Customer(names[i], investments[i & 4095], i));
+            }
+            AtomicLong time = new AtomicLong(n);
+            measure("insert + delMax, arrival order " + (track ? "on" : "off"), 1 << 18, i -> {
+                queue.insert(new Customer(names[n + (i % n)], investments[i & 4095], time.getAndIncrement()));
+                return queue.delMax().time_in();
+            });
+        }
+
+        NewCustomerQueue queue = new NewCustomerQueue(n, new CBlockChain(n), 2, true);
+        for (int i = 0; i < n; i++) {
+            queue.insert(new Customer(names[i], investments[i & 4095], i));
+        }
+        measure("oldest by scanning the heap", 256, i -> {
+            Customer[] array = queue.getArray();
+            long oldest = Long.MAX_VALUE;
+            for (int j = 0; j < queue.size(); j++) {
+                oldest = Math.min(oldest, array[j].time_in());
+            }
+            return oldest;
+        });
+        measure("oldest()", 1 << 20, i -> queue.oldest().time_in());
+
+        for (boolean bulk : new boolean[] {false, true}) {
+            long elapsed = 0;
+            int expired = 0;
+            for (int round = 0; round < 5; round++) {
+                NewCustomerQueue q = new NewCustomerQueue(n, new CBlockChain(n), 2, true);
+                for (int i = 0; i < n; i++) {
+                    q.insert(new Customer(names[i], investments[i & 4095], i));
+                }
+                long begin = System.nanoTime();
+                if (bulk) {
+                    expired += q.expireOlderThan(n / 2).size();
+                } else {
+                    while (q.oldest() != null && q.oldest().time_in() < n / 2) {
+                        q.remove(q.oldest());
+                        expired++;
+                    }
+                }
+                elapsed += System.nanoTime() - begin;
+            }
+            System.out.printf("%-48s %10.1f ns/op%n",
+                    bulk ? "expire half: expireOlderThan" : "expire half: remove each", (double) elapsed / expired);
+            sink += expired;
+        }
+    }
+
+    /**
+     * Dashboard queries on a 200k queue: top k by draining k with
+     * delMax and inserting them back vs topK, and counting an
+     * investment band by draining down to its bottom vs countInRange.
+     */
+    static void topK() throws Exception {
+        int n = 200_000;
+        String[] names = names(n, 33);
+        Random random = new Random(34);
+        NewCustomerQueue queue = new NewCustomerQueue(n);
+        for (int i = 0; i < n; i++) {
+            queue.insert(new Customer(names[i], random.nextInt(1_000_000), i));
+        }
+        List<Customer> drained = new ArrayList<>();
+        for (int k = 10; k <= 10_000; k *= 10) {
+            int top = k;
+            int ops = Math.max(64, (1 << 20) / k);
+            measure("top " + k + ": delMax and reinsert", ops, i -> {
+                drained.clear();
+                for (int j = 0; j < top; j++) {
+                    drained.add(queue.delMax());
+                }
+                queue.insertAll(drained);
+                return drained.get(top - 1).key();
+            });
+            measure("top " + k + ": topK", ops, i -> queue.topK(top).get(top - 1).key());
+        }
+        for (int band = 1_000; band <= 100_000; band *= 10) {
+            int lo = 1_000_000 - 2 * band;
+            int hi = 1_000_000 - band;
+            int ops = Math.max(64, (1 << 24) / band);
+            measure("count top " + band / 10_000.0 + "% band: drain", ops, i -> {
+                drained.clear();
+                int count = 0;
+                while (!queue.isEmpty() && queue.getMax().investment() >= lo) {
+                    Customer c = queue.delMax();
+                    drained.add(c);
+                    if (c.investment() <= hi) {
+                        count++;
+                    }
+                }
+                queue.insertAll(drained);
+                return count;
+            });
+            measure("count top " + band / 10_000.0 + "% band: countInRange", ops,
+                    i -> queue.countInRange(lo, hi));
+        }
+    }
+
+    /**
+     * BranchRouter throughput at 1 to 8 shards with one client thread
+     * per shard. Each client sends process / seeNext / emergency mixes
+     * to the shards its names hash to, waiting on every 256th reply so
+     * the shard queues stay bounded; every 16th seeNext is a roving
+     * manager's global one.
+     */
+    static void router() throws Exception {
+        String[] names = names(1 << 18, 35);
+        int[] investments = new Random(36).ints(4096, 1, 1_000_000).toArray();
+        int opsPerClient = 400_000;
+        for (int shards = 1; shards <= 8; shards *= 2) {
+            try (BranchRouter router = new BranchRouter(shards, 50_000, 950_000, OutcomeSink.NONE)) {
+                Thread[] clients = new Thread[shards];
+                for (int t = 0; t < shards; t++) {
+                    int offset = t * (names.length / shards);
+                    clients[t] = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < opsPerClient; i++) {
+                                String name = names[(offset + i) % names.length];
+                                CompletableFuture<?> reply = switch (i % 4) {
+                                    case 0, 1 -> router.process(name, investments[i & 4095]);
+                                    case 2 -> i % 64 == 2 ? router.seeNext()
+                                            : router.seeNext(Math.floorMod(name.hashCode(), router.shards()));
+                                    default -> router.handle_emergency(names[(offset + i / 2) % names.length]);
+                                };
+                                if ((i & 255) == 255) {
+                                    reply.get();
+                                }
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread client : clients) {
+                    client.start();
+                }
+                for (Thread client : clients) {
+                    client.join();
+                }
+                for (int s = 0; s < shards; s++) {
+                    sink += router.query(s, CreditUnion::processed).get();
+                }
+                System.out.printf("%-48s %10.0f ops/s%n", "BranchRouter, " + shards + " shards",
+                        (double) shards * opsPerClient * 1e9 / (System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * CreditUnionServer: in-process callers on 1 to 64 threads, then
+     * LoadGenerator terminals over localhost sockets.
+     */
+    static void server() throws Exception {
+        String[] names = names(100_000, 37);
+        for (int threads = 1; threads <= 64; threads *= 4) {
+            try (CreditUnionServer server = new CreditUnionServer(new CreditUnion(50_000, 950_000, OutcomeSink.NONE))) {
+                int opsPerThread = 400_000 / threads;
+                Thread[] callers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    SplittableRandom random = new SplittableRandom(t);
+                    callers[t] = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < opsPerThread; i++) {
+                                String name = names[random.nextInt(names.length)];
+                                switch (i % 4) {
+                                    case 0, 1 -> server.process(name, random.nextInt(1_000_000));
+                                    case 2 -> server.seeNext();
+                                    default -> server.handle_emergency(name);
+                                }
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread caller : callers) {
+                    caller.start();
+                }
+                for (Thread caller : callers) {
+                    caller.join();
+                }
+                System.out.printf("%-48s %10.0f ops/s%n", "in-process, " + threads + " callers",
+                        (double) threads * opsPerThread * 1e9 / (System.nanoTime() - start));
+            }
+        }
+        for (int connections = 1; connections <= 64; connections *= 8) {
+            try (CreditUnionServer server = new CreditUnionServer(new CreditUnion(50_000, 950_000, OutcomeSink.NONE))) {
+                int port = server.listen(0);
+                System.out.println(new LoadGenerator(port, connections, 80_000 / connections, 100_000).run());
+            }
+        }
+    }
+
+    /**
+     * Name index choice inside a full 1M NewCustomerQueue: footprint of
+     * queue plus index, then delMax + insert and remove + insert, where
+     * every op takes a Customer out of the index.
+     */
+    static void names() throws Exception {
+        int count = 1 << 20;
+        String[] names = names(2 * count, 38);
+        int[] investments = new Random(39).ints(4096, 1, 1_000_000).toArray();
+        for (String layout : new String[] {"chaining", "open addressing", "interned ids"}) {
+            long before = usedMemory();
+            CustomerIndex index = switch (layout) {
+                case "chaining" -> new CBlockChain(count);
+                case "open addressing" -> new OpenCBlockChain(count);
+                default -> new IdIndex(count);
+            };
+            NewCustomerQueue queue = new NewCustomerQueue(count, index);
+            for (int i = 0; i < count - 1; i++) {
+                queue.insert(new Customer(names[i], investments[i & 4095], i));
+            }
+            long bytes = usedMemory() - before;
+            System.out.printf("%-48s %10.1f bytes/customer%n", layout + ": queue footprint", (double) bytes / count);
+            AtomicLong time = new AtomicLong(count);
+            int ops = 1 << 18;
+            measure(layout + ": delMax + insert", ops, i -> {
+                Customer removed = queue.delMax();
+                queue.insert(new Customer(names[count + (i % count)], removed.investment(), time.getAndIncrement()));
+                return removed.time_in();
+            });
+            Customer[] array = queue.getArray();
+            measure(layout + ": remove(Customer) + insert", ops, i -> {
+                Customer removed = queue.remove(array[(i * 7919) % queue.size()]);
+                queue.insert(new Customer(removed.name(), removed.investment(), time.getAndIncrement()));
+                return removed.time_in();
+            });
+            measure(layout + ": update(name)", ops, i -> {
+                queue.update(array[(i * 7919) % queue.size()].name(), investments[i & 4095]);
+                return 0;
+            });
+            sink += queue.size();
+        }
+    }
+
+    /**
+     * TraceReplayer on a 4M-event day written as CSV and as binary:
+     * sustained ops/s, MB/s and bytes allocated per GB of trace.
+     */
+    static void trace() throws Exception {
+        Path dir = Files.createTempDirectory("trace");
+        String[] names = names(200_000, 40);
+        try {
+            Path overflow = dir.resolve("overflow.csv");
+            Files.writeString(overflow, "PROCESS,a,4294967297\n");
+            try {
+                new TraceReplayer(new CreditUnion(16, 950_000, OutcomeSink.NONE))
+                        .replay(overflow, TraceReplayer.Format.CSV);
+                throw new IllegalStateException("Replayed an investment that overflows int");
+            } catch (IOException expected) {
+                // rejected as a bad investment
+            }
+            for (TraceReplayer.Format format : TraceReplayer.Format.values()) {
+                Path file = dir.resolve("day." + format.name().toLowerCase());
+                Random random = new Random(41);
+                try (TraceWriter writer = new TraceWriter(file, format)) {
+                    for (int i = 0; i < 4_000_000; i++) {
+                        String name = names[random.nextInt(names.length)];
+                        switch (random.nextInt(10)) {
+                            case 0, 1, 2, 3 -> writer.process(name, random.nextInt(1_000_000));
+                            case 4, 5, 6 -> writer.seeNext();
+                            case 7, 8 -> writer.emergency(name, random.nextInt(1_000_000));
+                            default -> writer.walk_out(name);
+                        }
+                    }
+                }
+                for (int run = 0; run < 3; run++) {
+                    CreditUnion cu = new CreditUnion(100_000, 950_000, OutcomeSink.NONE);
+                    TraceReplayer.Report report = new TraceReplayer(cu).replay(file, format);
+                    System.out.printf("%-30s %s%n", format + " (" + Files.size(file) / (1 << 20) + " MB), run " + run,
+                            report);
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Several managers serving at once. First the rank error of each
+     * seeNext mode on a 16-stripe ConcurrentCreditUnion: how many
+     * waiting Customers had a higher investment than the one served,
+     * over a drain of half the queue. Then drain throughput with 1 to 4
+     * manager threads against one NewCustomerQueue behind a lock.
+     */
+    static void managers() throws Exception {
+        int n = 200_000;
+        int stripes = 16;
+        String[] names = new String[n];
+        int[] investments = new int[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = "r" + i;
+            investments[i] = i + 1;
+        }
+        Random shuffle = new Random(43);
+        for (int i = n - 1; i > 0; i--) {
+            int j = shuffle.nextInt(i + 1);
+            int t = investments[i];
+            investments[i] = investments[j];
+            investments[j] = t;
+        }
+        Map<String, Integer> investmentOf = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            investmentOf.put(names[i], investments[i]);
+        }
+        String[] modes = {"seeNext", "seeNext(2)", "seeNext(4)", "seeNext(8)", "seeNextBatch(16)"};
+        for (String mode : modes) {
+            ConcurrentCreditUnion cu = new ConcurrentCreditUnion(n, Integer.MAX_VALUE, stripes, OutcomeSink.NONE);
+            cu.setSeed(44);
+            // waiting[v] is set while the Customer with investment v waits; counted in a Fenwick tree
+            long[] tree = new long[n + 1];
+            for (int i = 0; i < n; i++) {
+                cu.process(names[i], investments[i]);
+                for (int v = investments[i]; v <= n; v += v & -v) {
+                    tree[v]++;
+                }
+            }
+            long total = 0;
+            long max = 0;
+            int served = 0;
+            while (served < n / 2) {
+                List<String> batch = switch (mode) {
+                    case "seeNext" -> List.of(cu.seeNext());
+                    case "seeNextBatch(16)" -> cu.seeNextBatch(16);
+                    default -> List.of(cu.seeNext(mode.charAt(8) - '0'));
+                };
+                for (String name : batch) {
+                    int investment = investmentOf.get(name);
+                    long atOrBelow = 0;
+                    for (int v = investment; v > 0; v -= v & -v) {
+                        atOrBelow += tree[v];
+                    }
+                    long rank = (n - served) - atOrBelow;
+                    total += rank;
+                    max = Math.max(max, rank);
+                    for (int v = investment; v <= n; v += v & -v) {
+                        tree[v]--;
+                    }
+                    served++;
+                }
+            }
+            System.out.printf("%-48s %10.2f mean %8d max%n", "rank error, " + mode + ", " + stripes + " stripes",
+                    (double) total / served, max);
+        }
+
+        int drain = 400_000;
+        for (int managers = 1; managers <= 4; managers *= 2) {
+            for (String mode : new String[] {"locked NewCustomerQueue", "seeNext", "seeNext(2)", "seeNextBatch(16)"}) {
+                NewCustomerQueue locked = new NewCustomerQueue(drain, new IdIndex(drain));
+                ConcurrentCreditUnion cu = new ConcurrentCreditUnion(drain, Integer.MAX_VALUE, stripes, OutcomeSink.NONE);
+                Random random = new Random(45);
+                for (int i = 0; i < drain; i++) {
+                    if (mode.startsWith("locked")) {
+                        locked.insert(new Customer("m" + i, random.nextInt(1_000_000), i));
+                    } else {
+                        cu.process("m" + i, random.nextInt(1_000_000));
+                    }
+                }
+                Thread[] threads = new Thread[managers];
+                AtomicLong seen = new AtomicLong();
+                for (int t = 0; t < managers; t++) {
+                    threads[t] = new Thread(() -> {
+                        try {
+                            while (true) {
+                                int count;
+                                switch (mode) {
+                                    case "locked NewCustomerQueue" -> {
+                                        synchronized (locked) {
+                                            count = locked.delMax() == null ? 0 : 1;
+                                        }
+                                    }
+                                    case "seeNext" -> count = cu.seeNext() == null ? 0 : 1;
+                                    case "seeNext(2)" -> count = cu.seeNext(2) == null ? 0 : 1;
+                                    default -> count = cu.seeNextBatch(16).size();
+                                }
+                                if (count == 0) {
+                                    return;
+                                }
+                                seen.addAndGet(count);
+                            }
+                        } catch (NoSuchAlgorithmException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (seen.get() != drain) {
+                    throw new IllegalStateException(mode + " served " + seen.get() + " of " + drain);
+                }
+                System.out.printf("%-48s %10.0f ops/s%n", mode + ", " + managers + " managers", drain * 1e9 / elapsed);
+            }
+        }
+    }
+
+    /**
+     * Queue statistics at 1e3 to 1e6 customers: scanning getArray for
+     * the count, total and histogram vs reading stats(), and the cost
+     * the aggregates add to the writer's delMax + insert and update.
+     * Last, the writer's throughput while a second thread polls stats()
+     * as fast as it can.
+     */
+    static void stats() throws Exception {
+        for (int n = 1000; n <= 1_000_000; n *= 10) {
+            String[] names = new String[n];
+            Random random = new Random(47);
+            NewCustomerQueue queue = new NewCustomerQueue(n);
+            for (int i = 0; i < n; i++) {
+                names[i] = "s" + i;
+                queue.insert(new Customer(names[i], random.nextInt(1_000_000), i));
+            }
+            int ops = Math.max(16, (1 << 24) / n);
+            measure("scan getArray, " + n + " queued", ops, i -> {
+                Customer[] array = queue.getArray();
+                int[] buckets = new int[QueueStats.BUCKETS];
+                long total = 0;
+                int count = 0;
+                for (Customer c : array) {
+                    if (c != null) {
+                        count++;
+                        total += c.investment();
+                        buckets[QueueStats.bucket(c.investment())]++;
+                    }
+                }
+                return total + count + buckets[20];
+            });
+            measure("stats(), " + n + " queued", 1 << 20, i -> queue.stats().totalInvestment());
+            int[] investments = random.ints(1024, 0, 1_000_000).toArray();
+            measure("delMax+insert, " + n + " queued", 1 << 18, i -> {
+                Customer c = queue.delMax();
+                c.setInvestment(investments[i & 1023]);
+                return queue.insert(c);
+            });
+            measure("update, " + n + " queued", 1 << 18, i -> {
+                queue.update(names[i % names.length], investments[i & 1023]);
+                return queue.size();
+            });
+        }
+
+        int n = 100_000;
+        NewCustomerQueue queue = new NewCustomerQueue(n);
+        Random random = new Random(48);
+        for (int i = 0; i < n; i++) {
+            queue.insert(new Customer("p" + i, random.nextInt(1_000_000), i));
+        }
+        int[] investments = random.ints(1024, 0, 1_000_000).toArray();
+        for (boolean polling : new boolean[] {false, true}) {
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicLong reads = new AtomicLong();
+            Thread reader = new Thread(() -> {
+                long count = 0;
+                while (!done.get()) {
+                    sink += queue.stats().count();
+                    count++;
+                }
+                reads.set(count);
+            });
+            if (polling) {
+                reader.start();
+            }
+            int ops = 4_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                Customer c = queue.delMax();
+                c.setInvestment(investments[i & 1023]);
+                sink += queue.insert(c);
+            }
+            long elapsed = System.nanoTime() - start;
+            done.set(true);
+            if (polling) {
+                reader.join();
+            }
+            System.out.printf("%-48s %10.0f ops/s %10.0f reads/s%n",
+                    "writer, " + (polling ? "stats() polled" : "no reader"), ops * 1e9 / elapsed, reads.get() * 1e9 / elapsed);
+        }
+    }
+
+    /**
+     * Queue snapshots at 1e3 to 1e6 customers: taking one vs copying
+     * getArray, then the writer's delMax + insert with a snapshot taken
+     * every 1e6 down to every 10 ops (skipping the runs that would copy
+     * over 1000 Customers per op), where the first change after each
+     * pays for copying the heap. Last, teller throughput on a
+     * ConcurrentCreditUnion while a dashboard thread reads the top 100,
+     * flat out or every 10 ms, from queueSnapshots vs by copying each
+     * stripe's keys under its lock.
+     */
+    static void snapshot() throws Exception {
+        for (int n = 1000; n <= 1_000_000; n *= 10) {
+            Random random = new Random(49);
+            NewCustomerQueue queue = new NewCustomerQueue(n);
+            for (int i = 0; i < n; i++) {
+                queue.insert(new Customer("s" + i, random.nextInt(1_000_000), i));
+            }
+            int ops = Math.max(16, (1 << 24) / n);
+            measure("copy getArray, " + n + " queued", ops, i -> queue.getArray().clone().length);
+            measure("snapshot(), " + n + " queued", 1 << 16, i -> queue.snapshot().size());
+            int[] investments = random.ints(1024, 0, 1_000_000).toArray();
+            for (int every : new int[] {0, 1_000_000, 10_000, 100, 10}) {
+                if (every != 0 && n / every > 1000) {
+                    continue;
+                }
+                measure("delMax+insert, " + n + ", snapshot " + (every == 0 ? "never" : "/" + every + " ops"),
+                        1 << 16, i -> {
+                            if (every != 0 && i % every == 0) {
+                                sink += queue.snapshot().size();
+                            }
+                            Customer c = queue.delMax();
+                            c.setInvestment(investments[i & 1023]);
+                            return queue.insert(c);
+                        });
+            }
+        }
+
+        int stripes = 4;
+        int held = 100_000;
+        for (String run : new String[] {"no dashboard", "queueSnapshots", "copy under lock",
+                "queueSnapshots every 10 ms", "copy under lock every 10 ms"}) {
+            String mode = run.replace(" every 10 ms", "");
+            int pause = run.equals(mode) ? 0 : 10;
+            ConcurrentCreditUnion cu = new ConcurrentCreditUnion(2 * held, Integer.MAX_VALUE, stripes, OutcomeSink.NONE);
+            Random random = new Random(50);
+            for (int i = 0; i < held; i++) {
+                cu.process("h" + i, random.nextInt(1_000_000));
+            }
+            java.lang.reflect.Field field = ConcurrentCreditUnion.class.getDeclaredField("stripes");
+            field.setAccessible(true);
+            Object[] stripeArray = (Object[]) field.get(cu);
+            java.lang.reflect.Field lockField = stripeArray[0].getClass().getDeclaredField("lock");
+            java.lang.reflect.Field queueField = stripeArray[0].getClass().getDeclaredField("queue");
+            lockField.setAccessible(true);
+            queueField.setAccessible(true);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicLong reads = new AtomicLong();
+            Thread dashboard = new Thread(() -> {
+                try {
+                    long count = 0;
+                    while (!done.get()) {
+                        if (mode.equals("queueSnapshots")) {
+                            for (QueueSnapshot snapshot : cu.queueSnapshots()) {
+                                sink += snapshot.topK(100).size();
+                            }
+                        } else {
+                            for (Object stripe : stripeArray) {
+                                java.util.concurrent.locks.Lock lock = (java.util.concurrent.locks.Lock) lockField.get(stripe);
+                                NewCustomerQueue queue = (NewCustomerQueue) queueField.get(stripe);
+                                long[] copy;
+                                lock.lock();
+                                try {
+                                    // Keys, not Customers: tellers change Customers once unlocked
+                                    Customer[] array = queue.getArray();
+                                    copy = new long[queue.size()];
+                                    for (int i = 0; i < copy.length; i++) {
+                                        copy[i] = array[i].key();
+                                    }
+                                } finally {
+                                    lock.unlock();
+                                }
+                                Arrays.sort(copy);
+                                sink += copy.length > 0 ? copy[Math.max(0, copy.length - 100)] : 0;
+                            }
+                        }
+                        count++;
+                        if (pause > 0) {
+                            Thread.sleep(pause);
+                        }
+                    }
+                    reads.set(count);
+                } catch (ReflectiveOperationException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            if (!mode.equals("no dashboard")) {
+                dashboard.start();
+            }
+            int ops = 2_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                String name = "h" + random.nextInt(held);
+                if ((i & 1) == 0) {
+                    cu.process(name, random.nextInt(1_000_000));
+                } else {
+                    cu.handle_emergency(name);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            done.set(true);
+            if (!mode.equals("no dashboard")) {
+                dashboard.join();
+            }
+            System.out.printf("%-48s %10.0f ops/s %10.1f reads/s%n", "teller, " + run, ops * 1e9 / elapsed,
+                    reads.get() * 1e9 / elapsed);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+}
@@ -0,0 +1,252 @@
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Many branches, each a CreditUnion shard owned by one worker thread.
+ * Every operation on a shard runs as a task on its thread, so shards
+ * need no locks and work on different shards runs in parallel.
+ *
+ * A directory maps each waiting Customer's name to its shard, so
+ * handle_emergency and walk_out find a Customer anywhere in O(1).
+ * A tournament tree over the shards' max keys gives the shard a
+ * roving manager should serve next in O(1), updated in O(log shards)
+ * only when an operation changes a shard's max. Names are assumed
+ * unique across branches: processing a name already waiting elsewhere
+ * moves its directory entry to the new branch.
+ *
+ * Operations return CompletableFutures completed on the shard's thread.
+ */
+public class BranchRouter implements AutoCloseable {
+
+    private final CreditUnion[] shards;
+    private final ExecutorService[] workers;
+    private final ConcurrentHashMap<String, Integer> directory = new ConcurrentHashMap<>();
+    private final TournamentTree maxima;
+    private final HashStrategy hasher = new MurmurHash();
+
+    /**
+     * A CreditUnion operation run on its shard's thread.
+     */
+    private interface Task<T> {
+        T run(CreditUnion cu) throws Exception;
+    }
+
+    /**
+     * Winner tree over one long per shard. Leaves sit at
+     * size..2*size-1; each inner node holds the shard with the greater
+     * value of its two children, ties going to the lower shard.
+     */
+    private static class TournamentTree {
+        private final long[] values;
+        private final int[] winners;
+        private final int size;
+
+        TournamentTree(int count) {
+            size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+            values = new long[size];
+            winners = new int[2 * size];
+            Arrays.fill(values, Long.MIN_VALUE);
+            for (int i = 0; i < size; i++) {
+                winners[size + i] = i;
+            }
+            for (int node = size - 1; node > 0; node--) {
+                winners[node] = winners[2 * node];
+            }
+        }
+
+        synchronized void set(int shard, long value) {
+            values[shard] = value;
+            for (int node = (size + shard) / 2; node > 0; node /= 2) {
+                int left = winners[2 * node];
+                int right = winners[2 * node + 1];
+                winners[node] = values[right] > values[left] ? right : left;
+            }
+        }
+
+        /**
+         * Return the shard with the greatest value, or -1 if every
+         * value is Long.MIN_VALUE.
+         */
+        synchronized int winner() {
+            int shard = winners[1];
+            return values[shard] == Long.MIN_VALUE ? -1 : shard;
+        }
+    }
+
+    public BranchRouter(int shardCount, int cap, int cr_threshold) {
+        this(shardCount, cap, cr_threshold, OutcomeSink.CONSOLE);
+    }
+
+    /**
+     * Each shard gets its own CreditUnion of capacity cap.
+     * Routed Customers from every shard go to sink, which must be
+     * thread-safe.
+     */
+    public BranchRouter(int shardCount, int cap, int cr_threshold, OutcomeSink sink) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Need at least one shard: " + shardCount);
+        }
+        shards = new CreditUnion[shardCount];
+        workers = new ExecutorService[shardCount];
+        maxima = new TournamentTree(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new CreditUnion(cap, cr_threshold, sink);
+            String name = "branch-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int shards() {
+        return shards.length;
+    }
+
+    /**
+     * Return the shard the named Customer is waiting in,
+     * or -1 if they are not waiting anywhere.
+     */
+    public int shardOf(String name) {
+        Integer shard = directory.get(name);
+        return shard == null ? -1 : shard;
+    }
+
+    /**
+     * Process a new Customer at the branch their name hashes to.
+     */
+    public CompletableFuture<String> process(String name, int investment) {
+        return process(Math.floorMod(hasher.hash(name), shards.length), name, investment);
+    }
+
+    /**
+     * Process a new Customer at the given branch; completes with what
+     * CreditUnion.process returns. A name already waiting at another
+     * branch is afterwards found at this one.
+     */
+    public CompletableFuture<String> process(int shard, String name, int investment) {
+        return submit(shard, cu -> {
+            String result = cu.process(name, investment);
+            if (result != null) {
+                if (!result.equals(name)) {
+                    directory.remove(result, shard);
+                }
+                directory.put(name, shard);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * A manager at the given branch sees its next Customer.
+     */
+    public CompletableFuture<String> seeNext(int shard) {
+        return submit(shard, cu -> {
+            String name = cu.seeNext();
+            if (name != null) {
+                directory.remove(name, shard);
+            }
+            return name;
+        });
+    }
+
+    /**
+     * A roving manager sees the Customer with the highest investment
+     * across all branches, as of when the call is made; completes with
+     * null if every branch is empty. Customers on different branches
+     * with equal investment are ordered by branch, not arrival, since
+     * each branch keeps its own clock.
+     */
+    public CompletableFuture<String> seeNext() {
+        int shard = maxima.winner();
+        return shard < 0 ? CompletableFuture.completedFuture(null) : seeNext(shard);
+    }
+
+    /**
+     * Handle an emergency for the named Customer wherever they wait;
+     * completes with false if they are not waiting anywhere.
+     */
+    public CompletableFuture<Boolean> handle_emergency(String name) {
+        int shard = shardOf(name);
+        if (shard < 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return submit(shard, cu -> {
+            boolean removed = cu.handle_emergency(name);
+            if (removed) {
+                directory.remove(name, shard);
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * The named Customer walks out of whichever branch they wait in.
+     */
+    public CompletableFuture<Void> walk_out(String name) {
+        int shard = shardOf(name);
+        if (shard < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submit(shard, cu -> {
+            directory.remove(name, shard);
+            cu.walk_out(name);
+            return null;
+        });
+    }
+
+    /**
+     * Read a shard's state on its own thread, e.g. its counters.
+     */
+    public <T> CompletableFuture<T> query(int shard, Function<CreditUnion, T> query) {
+        return submit(shard, query::apply);
+    }
+
+    /**
+     * Run task on the shard's thread, then refresh the shard's entry
+     * in the tournament tree if its max changed.
+     */
+    private <T> CompletableFuture<T> submit(int shard, Task<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CreditUnion cu = shards[shard];
+        workers[shard].execute(() -> {
+            long before = cu.maxKey();
+            try {
+                result.complete(task.run(cu));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                long after = cu.maxKey();
+                if (after != before) {
+                    maxima.set(shard, after);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finish queued operations and stop the worker threads.
+     * If interrupted while waiting, stop waiting and keep the
+     * interrupt set; the workers still finish what is queued.
+     */
+    public void close() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                worker.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Discrete-event simulation of one branch day driving a CreditUnion.
+ * Arrivals, service completions, emergencies and walk-outs are events
+ * in a time-ordered queue, run back to back with no wall-clock pacing.
+ * Everything random comes from the scenario's seed, so a run is
+ * reproducible.
+ */
+public class BranchSimulation {
+
+    private static final int ARRIVAL = 0;
+    private static final int SERVICE_DONE = 1;
+    private static final int EMERGENCY = 2;
+    private static final int WALK_OUT = 3;
+
+    private final Scenario scenario;
+    private final CreditUnion cu;
+    private final SplittableRandom random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long sequence;
+    private double now;
+    private int idleManagers;
+    private int nextCustomer;
+
+    /**
+     * Customers currently waiting, kept in a list for picking one at
+     * random and a map from name to list index for swap-removal.
+     */
+    private final ArrayList<String> waiting = new ArrayList<>();
+    private final HashMap<String, Integer> waitingIndex = new HashMap<>();
+    private final HashMap<String, Double> arrivedAt = new HashMap<>();
+    private double[] waits = new double[1024];
+    private int served;
+
+    private static class Event implements Comparable<Event> {
+        final double time;
+        final long sequence;
+        final int type;
+        final String name;
+
+        Event(double time, long sequence, int type, String name) {
+            this.time = time;
+            this.sequence = sequence;
+            this.type = type;
+            this.name = name;
+        }
+
+        public int compareTo(Event other) {
+            int c = Double.compare(time, other.time);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public BranchSimulation(Scenario scenario) {
+        this.scenario = scenario;
+        this.cu = new CreditUnion(scenario.capacity(), scenario.cr_threshold(), OutcomeSink.NONE);
+        this.random = new SplittableRandom(scenario.seed());
+        this.cu.setRandom(random.split());
+        this.idleManagers = scenario.managers();
+    }
+
+    /**
+     * Run every scenario on the common fork-join pool and return the
+     * reports in the same order.
+     */
+    public static List<SimulationReport> runAll(List<Scenario> scenarios)
+            throws InterruptedException, ExecutionException {
+        List<Callable<SimulationReport>> runs = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            runs.add(() -> new BranchSimulation(scenario).run());
+        }
+        List<SimulationReport> reports = new ArrayList<>();
+        for (Future<SimulationReport> report : ForkJoinPool.commonPool().invokeAll(runs)) {
+            reports.add(report.get());
+        }
+        return reports;
+    }
+
+    /**
+     * Simulate until the scenario's closing time.
+     */
+    public SimulationReport run() throws NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        long count = 0;
+        schedule(scenario.arrivals().sample(random), ARRIVAL, null);
+        schedule(scenario.emergencies().sample(random), EMERGENCY, null);
+        while (!events.isEmpty() && events.peek().time <= scenario.minutes()) {
+            Event event = events.poll();
+            now = event.time;
+            count++;
+            switch (event.type) {
+                case ARRIVAL -> arrive();
+                case SERVICE_DONE -> {
+                    idleManagers++;
+                    serve();
+                }
+                case EMERGENCY -> emergency();
+                case WALK_OUT -> walkOut(event.name);
+                default -> throw new IllegalStateException("Unknown event " + event.type);
+            }
+        }
+        long wall = System.nanoTime() - start;
+        double[] sorted = Arrays.copyOf(waits, served);
+        Arrays.sort(sorted);
+        double[] percentiles = {
+            percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 1)
+        };
+        return new SimulationReport(scenario.name(), count, wall, served, percentiles,
+                cu.processed(), cu.sentToBank(), cu.seenByManager(), cu.walkedOut());
+    }
+
+    private void schedule(double time, int type, String name) {
+        events.add(new Event(time, sequence++, type, name));
+    }
+
+    /**
+     * A new customer arrives and is routed by CreditUnion.process.
+     */
+    private void arrive() throws NoSuchAlgorithmException {
+        String name = "c" + nextCustomer++;
+        String result = cu.process(name, (int) scenario.investments().sample(random));
+        if (result != null) {
+            if (!result.equals(name)) {
+                leave(result);
+            }
+            join(name);
+            schedule(now + scenario.patience().sample(random), WALK_OUT, name);
+        }
+        serve();
+        schedule(now + scenario.arrivals().sample(random), ARRIVAL, null);
+    }
+
+    /**
+     * Hand waiting customers to idle managers.
+     */
+    private void serve() throws NoSuchAlgorithmException {
+        while (idleManagers > 0) {
+            String name = cu.seeNext();
+            if (name == null) {
+                return;
+            }
+            idleManagers--;
+            if (served == waits.length) {
+                waits = Arrays.copyOf(waits, 2 * served);
+            }
+            waits[served++] = now - arrivedAt.get(name);
+            leave(name);
+            schedule(now + scenario.service().sample(random), SERVICE_DONE, null);
+        }
+    }
+
+    /**
+     * A random waiting customer has an emergency.
+     */
+    private void emergency() throws NoSuchAlgorithmException {
+        if (!waiting.isEmpty()) {
+            String name = waiting.get(random.nextInt(waiting.size()));
+            if (cu.handle_emergency(name)) {
+                leave(name);
+            }
+        }
+        schedule(now + scenario.emergencies().sample(random), EMERGENCY, null);
+    }
+
+    private void walkOut(String name) throws NoSuchAlgorithmException {
+        if (waitingIndex.containsKey(name)) {
+            cu.walk_out(name);
+            leave(name);
+        }
+    }
+
+    private void join(String name) {
+        waitingIndex.put(name, waiting.size());
+        waiting.add(name);
+        arrivedAt.put(name, now);
+    }
+
+    private void leave(String name) {
+        Integer index = waitingIndex.remove(name);
+        if (index == null) {
+            return;
+        }
+        String last = waiting.remove(waiting.size() - 1);
+        if (index < waiting.size()) {
+            waiting.set(index, last);
+            waitingIndex.put(last, index);
+        }
+        arrivedAt.remove(name);
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+}
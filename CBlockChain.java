@@ -1,10 +1,21 @@
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.security.MessageDigest;
+import java.util.Arrays;
 
-public class CBlockChain {
+public class CBlockChain implements CustomerIndex {
 
-    private ArrayList[] table;
+    /**
+     * Number of old buckets moved into the new table per operation
+     * while a resize is in progress.
+     */
+    private static final int MIGRATE_STEP = 8;
+    private static final double DEFAULT_LOAD_FACTOR = 0.75;
+
+    private ArrayList<Customer>[] table;
+    private ArrayList<Customer>[] oldTable;
+    private int migrated;
+    private final HashStrategy hasher;
+    private final double maxLoadFactor;
     private int size;
 
     /**
@@ -12,30 +23,75 @@ public class CBlockChain {
      * Prime number p >= capacity.
      */
     public CBlockChain(int capacity) {
+        this(capacity, new MurmurHash());
+    }
+
+    /**
+     * Same as above, hashing names with the given strategy.
+     */
+    public CBlockChain(int capacity, HashStrategy hasher) {
+        this(capacity, hasher, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Same as above; once size / table length exceeds maxLoadFactor
+     * the table grows to the next prime >= twice its length.
+     */
+    public CBlockChain(int capacity, HashStrategy hasher, double maxLoadFactor) {
+        if (!(maxLoadFactor > 0)) {
+            throw new IllegalArgumentException("Load factor must be positive: " + maxLoadFactor);
+        }
         size = 0;
+        this.hasher = hasher;
+        this.maxLoadFactor = maxLoadFactor;
         if (capacity == 2 || capacity == 3 || isPrime(capacity)) {
-            this.table = new ArrayList[capacity];
+            this.table = newTable(capacity);
         } else {
-            this.table = new ArrayList[getNextPrime(capacity)];
+            this.table = newTable(getNextPrime(capacity));
         }
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayList<Customer>[] newTable(int length) {
+        return new ArrayList[length];
+    }
+
     /**
-     * Find the hash code for a given name.
+     * Reduce a hash code to a bucket index for the given table.
      */
-    private int hash(String key) throws NoSuchAlgorithmException {
-        MessageDigest message = MessageDigest.getInstance("SHA-256");
-        message.update(key.getBytes());
-        byte[] bytes = message.digest();
-        StringBuilder string = new StringBuilder();
-        for (byte b: bytes) {
-            string.append(String.format("%02x", b & 0xff));
+    private static int index(int hashCode, ArrayList<Customer>[] table) {
+        int index = hashCode % table.length;
+        if (index < 0) {
+            index += table.length;
         }
-        int hashCode = string.toString().hashCode() % table.length;
-        if (hashCode < 0) {
-            hashCode += table.length;
+        return index;
+    }
+
+    /**
+     * Find the bucket in the given table that may hold the name.
+     * Old buckets that have already been migrated are skipped.
+     */
+    private ArrayList<Customer> bucket(ArrayList<Customer>[] table, int hashCode) {
+        int index = index(hashCode, table);
+        if (table == oldTable && index < migrated) {
+            return null;
         }
-        return hashCode;
+        return table[index];
+    }
+
+    /**
+     * Return the index of the Customer with the given name
+     * in the bucket or -1 if it isn't there.
+     */
+    private static int find(ArrayList<Customer> bucket, String name) {
+        if (bucket != null) {
+            for (int i = 0; i < bucket.size(); i++) {
+                if (bucket.get(i).name().equals(name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
     }
 
     /**
@@ -43,30 +99,39 @@ public class CBlockChain {
      * or null if the Customer is not in the table.
      */
     public Customer get(String name) throws NoSuchAlgorithmException {
-        if (table[hash(name)] != null) {
-            for (Object customer : table[hash(name)]) {
-                Customer c = (Customer) customer;
-                if (c.name().equals(name)) {
-                    return c;
-                }
-            }
+        migrate();
+        int hashCode = hasher.hash(name);
+        ArrayList<Customer> bucket = bucket(table, hashCode);
+        int i = find(bucket, name);
+        if (i < 0 && oldTable != null) {
+            bucket = bucket(oldTable, hashCode);
+            i = find(bucket, name);
         }
-        return null;
+        return i < 0 ? null : bucket.get(i);
     }
 
     /**
      * Put Customer c into the table.
      */
     public void put(Customer c) throws NoSuchAlgorithmException {
-        if (get(c.name()) != null) {
+        migrate();
+        int hashCode = hasher.hash(c.name());
+        if (oldTable != null && find(bucket(oldTable, hashCode), c.name()) >= 0) {
             return;
         }
-        int hash_code = hash(c.name());
-        if (table[hash_code] == null) {
-            table[hash_code] = new ArrayList<Customer>();
+        int hash_code = index(hashCode, table);
+        ArrayList<Customer> bucket = table[hash_code];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            table[hash_code] = bucket;
+        } else if (find(bucket, c.name()) >= 0) {
+            return;
         }
-        table[hash_code].add(c);
+        bucket.add(c);
         size++;
+        if (size > maxLoadFactor * table.length) {
+            grow();
+        }
     }
 
     /**
@@ -74,17 +139,60 @@ public class CBlockChain {
      * from the table. Return null if Customer doesn't exist.
      */
     public Customer remove(String name) throws NoSuchAlgorithmException {
-        if (get(name) != null) {
-            for (Object customer : table[hash(name)]) {
-                Customer c = (Customer) customer;
-                if (c.name().equals(name)) {
-                    table[hash(name)].remove(c);
-                    size--;
-                    return c;
+        migrate();
+        int hashCode = hasher.hash(name);
+        ArrayList<Customer> bucket = bucket(table, hashCode);
+        int i = find(bucket, name);
+        if (i < 0 && oldTable != null) {
+            bucket = bucket(oldTable, hashCode);
+            i = find(bucket, name);
+        }
+        if (i < 0) {
+            return null;
+        }
+        size--;
+        return bucket.remove(i);
+    }
+
+    /**
+     * Start moving every Customer into a table of the next prime
+     * length >= twice the current one. The move is spread over the
+     * following operations so no single put pays for a full rehash.
+     */
+    private void grow() {
+        while (oldTable != null) {
+            migrate();
+        }
+        oldTable = table;
+        migrated = 0;
+        table = newTable(getNextPrime(2 * table.length));
+    }
+
+    /**
+     * Move the next few buckets of the old table, if any.
+     */
+    private void migrate() {
+        if (oldTable == null) {
+            return;
+        }
+        int end = Math.min(migrated + MIGRATE_STEP, oldTable.length);
+        for (; migrated < end; migrated++) {
+            ArrayList<Customer> bucket = oldTable[migrated];
+            if (bucket == null) {
+                continue;
+            }
+            for (Customer c : bucket) {
+                int index = index(hasher.hash(c.name()), table);
+                if (table[index] == null) {
+                    table[index] = new ArrayList<>();
                 }
+                table[index].add(c);
             }
+            oldTable[migrated] = null;
+        }
+        if (migrated == oldTable.length) {
+            oldTable = null;
         }
-        return null;
     }
 
     /**
@@ -94,6 +202,68 @@ public class CBlockChain {
         return size;
     }
 
+    /**
+     * Return the current number of Customers per bucket.
+     */
+    public double loadFactor() {
+        return (double) size / table.length;
+    }
+
+    /**
+     * Return the length of the longest bucket.
+     * Scans the whole table.
+     */
+    public int maxChainLength() {
+        int max = 0;
+        for (ArrayList<Customer> bucket : table) {
+            if (bucket != null) {
+                max = Math.max(max, bucket.size());
+            }
+        }
+        if (oldTable != null) {
+            for (int i = migrated; i < oldTable.length; i++) {
+                if (oldTable[i] != null) {
+                    max = Math.max(max, oldTable[i].size());
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * A Customer at position k of its bucket is found on probe k+1,
+     * so this is also the distribution of chain lengths, summed.
+     */
+    public int[] probeLengths() {
+        int[] lengths = new int[maxChainLength()];
+        for (ArrayList<Customer> bucket : table) {
+            lengths = count(lengths, bucket);
+        }
+        if (oldTable != null) {
+            for (int i = migrated; i < oldTable.length; i++) {
+                lengths = count(lengths, oldTable[i]);
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Add bucket's Customers to lengths, growing it if the bucket is
+     * longer than it.
+     */
+    private static int[] count(int[] lengths, ArrayList<Customer> bucket) {
+        if (bucket != null) {
+            int size = bucket.size();
+            if (size > lengths.length) {
+                lengths = Arrays.copyOf(lengths, size);
+            }
+            for (int k = 0; k < size; k++) {
+                lengths[k]++;
+            }
+        }
+        return lengths;
+    }
+
     /**
      * Returns the underlying structure for testing
      */
@@ -130,8 +300,7 @@ public class CBlockChain {
         if (num % 2 == 0) {
             return false;
         }
-        int x = 3;
-        for (int i = x; i < num; i += 2) {
+        for (int i = 3; (long) i * i <= num; i += 2) {
             if (num % i == 0) {
                 return false;
             }
@@ -140,5 +309,3 @@ public class CBlockChain {
     }
 
 }
-
-
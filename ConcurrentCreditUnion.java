@@ -0,0 +1,471 @@
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * Thread-safe CreditUnion with the same rules and operations.
+ * Customers are split over lock stripes by name; each stripe owns a
+ * NewCustomerQueue and its index, so operations on different names
+ * run in parallel. seeNext and a full-queue process look at every
+ * stripe's max to find the overall one; each stripe publishes its max
+ * key after every change, so that look takes no locks.
+ * For several managers serving at once there is a relaxed seeNext
+ * that samples a few stripes, and an exact one that serves a batch.
+ */
+public class ConcurrentCreditUnion {
+
+    private final Stripe[] stripes;
+    private final HashStrategy hasher = new MurmurHash();
+    private final int cr_threshold;
+    private final int capacity;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final LongAdder seenByManager = new LongAdder();
+    private final LongAdder sentToBank = new LongAdder();
+    private final LongAdder walkedOut = new LongAdder();
+    private final OutcomeSink sink;
+    /**
+     * Each thread draws emergencies from its own generator,
+     * split off root the first time it needs one.
+     */
+    private SplittableRandom root = new SplittableRandom();
+    private volatile ThreadLocal<RandomGenerator> random = ThreadLocal.withInitial(this::split);
+
+    /**
+     * One lock and the queue it guards.
+     */
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final NewCustomerQueue queue;
+        /**
+         * Key of the queue's max, or Long.MIN_VALUE if it is empty.
+         * Written under lock, read without it.
+         */
+        volatile long maxKey = Long.MIN_VALUE;
+
+        Stripe(NewCustomerQueue queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * Refresh maxKey after a change; call with lock held.
+         */
+        void publish() {
+            maxKey = queue.isEmpty() ? Long.MIN_VALUE : queue.getMax().key();
+        }
+    }
+
+    public ConcurrentCreditUnion(int cap, int cr_threshold) {
+        this(cap, cr_threshold, OutcomeSink.CONSOLE);
+    }
+
+    public ConcurrentCreditUnion(int cap, int cr_threshold, OutcomeSink sink) {
+        this(cap, cr_threshold, Math.max(2, Runtime.getRuntime().availableProcessors()), sink);
+    }
+
+    public ConcurrentCreditUnion(int cap, int cr_threshold, int stripeCount) {
+        this(cap, cr_threshold, stripeCount, OutcomeSink.CONSOLE);
+    }
+
+    /**
+     * Names need not spread evenly, so every stripe's heap can hold
+     * the whole capacity; heaps and indexes start small and grow, so
+     * memory follows the Customers waiting, not stripes times cap.
+     * Routed Customers are reported to sink, which must be thread-safe.
+     */
+    public ConcurrentCreditUnion(int cap, int cr_threshold, int stripeCount, OutcomeSink sink) {
+        this.capacity = cap;
+        this.cr_threshold = cr_threshold;
+        this.sink = sink;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(new NewCustomerQueue(cap, new CBlockChain(cap / stripeCount + 1)));
+        }
+    }
+
+    private synchronized RandomGenerator split() {
+        return root.split();
+    }
+
+    /**
+     * Seed every thread's emergency generator from seed. With the same
+     * threads asking in the same order, runs are reproducible.
+     * Call before handing the CreditUnion to worker threads.
+     */
+    public synchronized void setSeed(long seed) {
+        root = new SplittableRandom(seed);
+        random = ThreadLocal.withInitial(this::split);
+    }
+
+    /**
+     * Return threshold.
+     */
+    public int cr_threshold() {
+        return this.cr_threshold;
+    }
+
+    /**
+     * Return capacity.
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Return the number of Customers waiting.
+     */
+    public int size() {
+        return queued.get();
+    }
+
+    /**
+     * Return the stripe that owns the given name.
+     */
+    private Stripe stripe(String name) {
+        return stripes[Math.floorMod(hasher.hash(name), stripes.length)];
+    }
+
+    /**
+     * Process a new Customer under the same rules as
+     * CreditUnion.process.
+     */
+    public String process(String name, int investment) throws NoSuchAlgorithmException {
+        Customer c = new Customer(name, investment, processed.incrementAndGet());
+        Stripe stripe = stripe(name);
+        if (investment > cr_threshold) {
+            remove(stripe, name);
+            sendToBank(c);
+            return null;
+        }
+        while (true) {
+            if (reserve()) {
+                insert(stripe, c);
+                return name;
+            }
+            Stripe maxStripe = maxStripe();
+            if (maxStripe == null) {
+                continue;
+            }
+            Customer max;
+            boolean evict;
+            maxStripe.lock.lock();
+            try {
+                max = maxStripe.queue.getMax();
+                if (max == null) {
+                    continue;
+                }
+                if (investment > max.investment()) {
+                    evict = false;
+                } else if (c.time_in() <= max.time_in()) {
+                    maxStripe.queue.delMax();
+                    maxStripe.publish();
+                    evict = true;
+                } else {
+                    return null;
+                }
+            } finally {
+                maxStripe.lock.unlock();
+            }
+            if (!evict) {
+                remove(stripe, name);
+                sendToBank(c);
+                return null;
+            }
+            sendToBank(max);
+            insert(stripe, c);
+            return max.name();
+        }
+    }
+
+    /**
+     * Manager is available--send the Customer with
+     * highest investment value to be seen; return the name
+     * of the Customer or null if the queue is empty
+     */
+    public String seeNext() throws NoSuchAlgorithmException {
+        while (true) {
+            Stripe maxStripe = maxStripe();
+            if (maxStripe == null) {
+                return null;
+            }
+            Customer c;
+            maxStripe.lock.lock();
+            try {
+                c = maxStripe.queue.delMax();
+                maxStripe.publish();
+            } finally {
+                maxStripe.lock.unlock();
+            }
+            if (c != null) {
+                queued.decrementAndGet();
+                seeManager(c);
+                return c.name();
+            }
+        }
+    }
+
+    /**
+     * Relaxed seeNext for many managers at once, in the style of a
+     * MultiQueue: compare the maxes of choices randomly picked stripes
+     * and serve the best of those, picking again rather than waiting
+     * if another manager holds its lock. The Customer served is one of
+     * the greatest rather than the greatest; the rank error grows with
+     * stripes / choices, and choices of at least the stripe count is
+     * as exact as seeNext. If every picked stripe is empty, all of
+     * them are looked at. Return null if the queue is empty.
+     */
+    public String seeNext(int choices) throws NoSuchAlgorithmException {
+        if (choices >= stripes.length) {
+            return seeNext();
+        }
+        RandomGenerator random = this.random.get();
+        while (true) {
+            Stripe best = null;
+            long bestKey = Long.MIN_VALUE;
+            for (int i = 0; i < choices; i++) {
+                Stripe stripe = stripes[random.nextInt(stripes.length)];
+                long key = stripe.maxKey;
+                if (key > bestKey) {
+                    best = stripe;
+                    bestKey = key;
+                }
+            }
+            if (best == null) {
+                best = maxStripe();
+                if (best == null) {
+                    return null;
+                }
+            }
+            if (!best.lock.tryLock()) {
+                continue;
+            }
+            Customer c;
+            try {
+                c = best.queue.delMax();
+                best.publish();
+            } finally {
+                best.lock.unlock();
+            }
+            if (c != null) {
+                queued.decrementAndGet();
+                seeManager(c);
+                return c.name();
+            }
+        }
+    }
+
+    /**
+     * Exact seeNext for up to k managers at once: with every stripe
+     * locked, take the k greatest Customers and return their names,
+     * greatest first. The batch shares one round of locking instead
+     * of one per Customer. Stripes are always locked in the same
+     * order, and nothing else holds two stripe locks at once.
+     */
+    public List<String> seeNextBatch(int k) throws NoSuchAlgorithmException {
+        List<Customer> batch = new ArrayList<>(Math.max(0, k));
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+        try {
+            while (batch.size() < k) {
+                Stripe best = null;
+                long bestKey = Long.MIN_VALUE;
+                for (Stripe stripe : stripes) {
+                    if (!stripe.queue.isEmpty() && stripe.queue.getMax().key() > bestKey) {
+                        best = stripe;
+                        bestKey = stripe.queue.getMax().key();
+                    }
+                }
+                if (best == null) {
+                    break;
+                }
+                batch.add(best.queue.delMax());
+            }
+            for (Stripe stripe : stripes) {
+                stripe.publish();
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].lock.unlock();
+            }
+        }
+        queued.addAndGet(-batch.size());
+        List<String> names = new ArrayList<>(batch.size());
+        for (Customer c : batch) {
+            seeManager(c);
+            names.add(c.name());
+        }
+        return names;
+    }
+
+    /**
+     * Return an immutable view of each stripe's queue, all taken at
+     * the same moment. Every stripe is locked, but only for the O(1)
+     * NewCustomerQueue.snapshot of each, so tellers are held up briefly
+     * and the views are read with no lock at all.
+     */
+    public List<QueueSnapshot> queueSnapshots() {
+        List<QueueSnapshot> snapshots = new ArrayList<>(stripes.length);
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+        try {
+            for (Stripe stripe : stripes) {
+                snapshots.add(stripe.queue.snapshot());
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].lock.unlock();
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Same as CreditUnion.handle_emergency; the Customer's stripe is
+     * locked while its investment changes.
+     */
+    public boolean handle_emergency(String name) throws NoSuchAlgorithmException {
+        Stripe stripe = stripe(name);
+        RandomGenerator random = this.random.get();
+        Customer c;
+        int investment;
+        stripe.lock.lock();
+        try {
+            c = stripe.queue.getCustomer(name);
+            if (c == null) {
+                return false;
+            }
+            investment = c.investment();
+            double a = random.nextDouble();
+            int b = random.nextInt(10);
+            if (a < 0.5) {
+                investment -= investment*b*0.01;
+            } else {
+                investment += investment*b*0.01;
+            }
+            if (investment > cr_threshold || investment <= 0) {
+                c.setInvestment(investment);
+                stripe.queue.remove(c);
+                stripe.publish();
+                queued.decrementAndGet();
+            } else {
+                stripe.queue.update(c, investment);
+                stripe.publish();
+                return false;
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (investment > cr_threshold) {
+            sendToBank(c);
+        } else {
+            walkedOut.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Customer decides to walk out remove them from the queue
+     */
+    public void walk_out(String name) throws NoSuchAlgorithmException {
+        walkedOut.increment();
+        remove(stripe(name), name);
+    }
+
+    /**
+     * Claim a free place in the queue if there is one.
+     */
+    private boolean reserve() {
+        int n;
+        do {
+            n = queued.get();
+            if (n >= capacity) {
+                return false;
+            }
+        } while (!queued.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    private void insert(Stripe stripe, Customer c) throws NoSuchAlgorithmException {
+        stripe.lock.lock();
+        try {
+            stripe.queue.insert(c);
+            stripe.publish();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the Customer with the given name, if queued.
+     */
+    private void remove(Stripe stripe, String name) throws NoSuchAlgorithmException {
+        stripe.lock.lock();
+        try {
+            if (stripe.queue.remove(name) != null) {
+                stripe.publish();
+                queued.decrementAndGet();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Return the stripe holding the greatest Customer, or null if every
+     * stripe is empty. Reads each stripe's published max without
+     * locking, so under concurrent changes this is the max as of the scan.
+     */
+    private Stripe maxStripe() {
+        Stripe best = null;
+        long bestKey = Long.MIN_VALUE;
+        for (Stripe stripe : stripes) {
+            long key = stripe.maxKey;
+            if (key > bestKey) {
+                best = stripe;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Indicates that Customer c has been sent to the Bank
+     */
+    private void sendToBank(Customer c) {
+        sink.publish(c, Outcome.SENT_TO_BANK);
+        sentToBank.increment();
+    }
+
+    /**
+     * Indicates that a Customer is being seen by a Manager
+     */
+    private void seeManager(Customer c) {
+        sink.publish(c, Outcome.SEEN_BY_MANAGER);
+        seenByManager.increment();
+    }
+
+    public int processed() {
+        return (int) processed.get();
+    }
+
+    public int sentToBank() {
+        return sentToBank.intValue();
+    }
+
+    public int seenByManager() {
+        return seenByManager.intValue();
+    }
+
+    public int walkedOut() {
+        return walkedOut.intValue();
+    }
+
+}
@@ -1,5 +1,12 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 public class CreditUnion {
 
@@ -10,11 +17,74 @@ public class CreditUnion {
     private int seenByManager = 0;
     private int sentToBank = 0;
     private int walkedOut = 0;
+    private final OutcomeSink sink;
+    private final boolean trackArrivals;
+    private CreditUnionJournal journal;
+    private boolean replaying;
+    private RandomGenerator random = new SplittableRandom();
+    private final CreditUnionMetrics metrics = CreditUnionMetrics.ENABLED ? new CreditUnionMetrics(this) : null;
 
     public CreditUnion(int cap, int cr_threshold) {
+        this(cap, cr_threshold, OutcomeSink.CONSOLE);
+    }
+
+    /**
+     * Same as above, reporting routed Customers to the given sink.
+     */
+    public CreditUnion(int cap, int cr_threshold, OutcomeSink sink) {
+        this(cap, cr_threshold, sink, false);
+    }
+
+    /**
+     * Same as above; if trackArrivals, also keep Customers in arrival
+     * order so oldest() and expireOlderThan can be used.
+     */
+    public CreditUnion(int cap, int cr_threshold, OutcomeSink sink, boolean trackArrivals) {
         this.capacity = cap;
         this.cr_threshold = cr_threshold;
-        cq = new NewCustomerQueue(cap);
+        this.sink = sink;
+        this.trackArrivals = trackArrivals;
+        cq = new NewCustomerQueue(cap, new IdIndex(cap), 2, trackArrivals);
+    }
+
+    /**
+     * Same as CreditUnion(cap, cr_threshold, sink), recovering state
+     * from the journal and then logging every change to it.
+     */
+    public CreditUnion(int cap, int cr_threshold, OutcomeSink sink, CreditUnionJournal journal)
+            throws IOException, NoSuchAlgorithmException {
+        this(cap, cr_threshold, sink, false, journal);
+    }
+
+    /**
+     * Same as above, tracking arrival order if trackArrivals. A journal
+     * holding expireOlderThan calls needs trackArrivals to recover.
+     */
+    public CreditUnion(int cap, int cr_threshold, OutcomeSink sink, boolean trackArrivals,
+            CreditUnionJournal journal) throws IOException, NoSuchAlgorithmException {
+        this(cap, cr_threshold, sink, trackArrivals);
+        replaying = true;
+        try {
+            journal.recover(this);
+        } finally {
+            replaying = false;
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * Draw handle_emergency's changes from the given generator.
+     */
+    public void setRandom(RandomGenerator random) {
+        this.random = random;
+    }
+
+    /**
+     * Draw handle_emergency's changes from a generator seeded with seed,
+     * so the same calls replay the same emergencies.
+     */
+    public void setSeed(long seed) {
+        this.random = new SplittableRandom(seed);
     }
 
     /**
@@ -44,8 +114,61 @@ public class CreditUnion {
      * of the max Customer
      */
     public String process(String name, int investment) throws NoSuchAlgorithmException {
+        long start = CreditUnionMetrics.start();
+        log(CreditUnionJournal.PROCESS, name, investment);
         processed++;
-        Customer c = new Customer(name, investment, processed);
+        String result = admit(new Customer(name, investment, processed));
+        checkpoint();
+        if (CreditUnionMetrics.ENABLED) {
+            metrics.process.recordSince(start);
+            metrics.afterOperation();
+        }
+        return result;
+    }
+
+    /**
+     * Process many new Customers in arrival order.
+     * Each Customer goes through the same rules as process and the
+     * returned list holds what process would have returned for each.
+     * Runs of Customers that simply join a queue with room to spare
+     * are inserted together with one heapify instead of one sift each.
+     * With metrics on, the whole batch is one process latency sample.
+     */
+    public List<String> processBatch(Collection<Map.Entry<String, Integer>> arrivals)
+            throws NoSuchAlgorithmException {
+        long start = CreditUnionMetrics.start();
+        List<String> outcomes = new ArrayList<>(arrivals.size());
+        List<Customer> pending = new ArrayList<>();
+        for (Map.Entry<String, Integer> arrival : arrivals) {
+            String name = arrival.getKey();
+            int investment = arrival.getValue();
+            log(CreditUnionJournal.PROCESS, name, investment);
+            processed++;
+            Customer c = new Customer(name, investment, processed);
+            if (investment <= cr_threshold && cq.size() + pending.size() < capacity) {
+                pending.add(c);
+                outcomes.add(name);
+                continue;
+            }
+            cq.insertAll(pending);
+            pending.clear();
+            outcomes.add(admit(c));
+        }
+        cq.insertAll(pending);
+        checkpoint();
+        if (CreditUnionMetrics.ENABLED) {
+            metrics.process.recordSince(start);
+            metrics.afterOperation();
+        }
+        return outcomes;
+    }
+
+    /**
+     * Apply the threshold and capacity rules to a new Customer.
+     */
+    private String admit(Customer c) throws NoSuchAlgorithmException {
+        String name = c.name();
+        int investment = c.investment();
         if (investment > cr_threshold) {
             cq.remove(c.name());
             sendToBank(c);
@@ -61,7 +184,7 @@ public class CreditUnion {
                     sendToBank(c);
                     return null;
                 }
-                if (processed <= max.time_in()) {
+                if (c.time_in() <= max.time_in()) {
                     cq.remove(max.name());
                     sendToBank(max);
                     cq.insert(c);
@@ -78,12 +201,20 @@ public class CreditUnion {
      * of the Customer or null if the queue is empty
      */
     public String seeNext() throws NoSuchAlgorithmException {
+        long start = CreditUnionMetrics.start();
+        String name = null;
         if (!cq.isEmpty()) {
+            log(CreditUnionJournal.SEE_NEXT, null, 0);
             Customer c = cq.delMax();
             seeManager(c);
-            return c.name();
+            checkpoint();
+            name = c.name();
         }
-        return null;
+        if (CreditUnionMetrics.ENABLED) {
+            metrics.seeNext.recordSince(start);
+            metrics.afterOperation();
+        }
+        return name;
     }
 
     /**
@@ -95,28 +226,66 @@ public class CreditUnion {
      * and false otherwise
      */
     public boolean handle_emergency(String name) throws NoSuchAlgorithmException {
+        long start = CreditUnionMetrics.start();
         Customer c = cq.getCustomer(name);
-        if (c == null) {
-            return false;
+        int investment = 0;
+        if (c != null) {
+            investment = c.investment();
+            double a = random.nextDouble();
+            int b = random.nextInt(10);
+            if (a < 0.5) {
+                investment -= investment*b*0.01;
+            } else {
+                investment += investment*b*0.01;
+            }
         }
-        int investment = c.investment();
-        Random random = new Random();
-        double a = random.nextDouble();
-        int b = random.nextInt(10);
-        if (a < 0.5) {
-            investment -= investment*b*0.01;
-        } else {
-            investment += investment*b*0.01;
+        return emergency(start, c, investment);
+    }
+
+    /**
+     * Same as above, but the emergency leaves the Customer at the
+     * given investment instead of a random one, e.g. from a trace.
+     */
+    public boolean handle_emergency(String name, int investment) throws NoSuchAlgorithmException {
+        long start = CreditUnionMetrics.start();
+        return emergency(start, cq.getCustomer(name), investment);
+    }
+
+    private boolean emergency(long start, Customer c, int investment) throws NoSuchAlgorithmException {
+        boolean removed = false;
+        if (c != null) {
+            log(CreditUnionJournal.EMERGENCY, c.name(), investment);
+            removed = applyEmergency(c, investment);
+            checkpoint();
+        }
+        if (CreditUnionMetrics.ENABLED) {
+            metrics.emergency.recordSince(start);
+            metrics.afterOperation();
         }
-        cq.update(name, investment);
+        return removed;
+    }
+
+    /**
+     * Replay an emergency that left the named Customer at investment.
+     */
+    boolean applyEmergency(String name, int investment) throws NoSuchAlgorithmException {
+        Customer c = cq.getCustomer(name);
+        return c != null && applyEmergency(c, investment);
+    }
+
+    private boolean applyEmergency(Customer c, int investment) throws NoSuchAlgorithmException {
         if (investment > cr_threshold) {
-            cq.remove(c.name());
+            // c leaves the queue, so there is no point sifting it first
+            c.setInvestment(investment);
+            cq.remove(c);
             sendToBank(c);
             return true;
         } else if (investment <= 0) {
-            walk_out(c.name());
+            c.setInvestment(investment);
+            leave(c.name());
             return true;
         }
+        cq.update(c, investment);
         return false;
     }
 
@@ -124,15 +293,135 @@ public class CreditUnion {
      * Customer decides to walk out remove them from the queue
      */
     public void walk_out(String name) throws NoSuchAlgorithmException {
+        long start = CreditUnionMetrics.start();
+        log(CreditUnionJournal.WALK_OUT, name, 0);
+        leave(name);
+        checkpoint();
+        if (CreditUnionMetrics.ENABLED) {
+            metrics.walkOut.recordSince(start);
+            metrics.afterOperation();
+        }
+    }
+
+    private void leave(String name) throws NoSuchAlgorithmException {
         walkedOut++;
         cq.remove(name);
     }
 
+    /**
+     * Return the names of the next k Customers a manager would see,
+     * in order, without seeing them.
+     */
+    public List<String> topK(int k) {
+        List<String> names = new ArrayList<>();
+        for (Customer c : cq.topK(k)) {
+            names.add(c.name());
+        }
+        return names;
+    }
+
+    /**
+     * Return the number of waiting Customers whose investment is
+     * between lo and hi inclusive.
+     */
+    public int countInRange(int lo, int hi) {
+        return cq.countInRange(lo, hi);
+    }
+
+    /**
+     * Return the count, total and investment histogram of the waiting
+     * Customers. O(1), and safe to call from another thread.
+     */
+    public QueueStats stats() {
+        return cq.stats();
+    }
+
+    /**
+     * Return an immutable view of the waiting Customers in O(1), for
+     * reading on another thread while this one keeps going. The first
+     * change after it copies the queue once.
+     */
+    public QueueSnapshot queueSnapshot() {
+        return cq.snapshot();
+    }
+
+    /**
+     * Return the name of the Customer who has waited longest,
+     * or null if the queue is empty.
+     * Throws IllegalStateException unless arrival order is tracked.
+     */
+    public String oldest() {
+        Customer c = cq.oldest();
+        return c == null ? null : c.name();
+    }
+
+    /**
+     * Customers who arrived before time_in give up waiting:
+     * remove them all, counting each as walked out, and
+     * return how many there were.
+     * Throws IllegalStateException unless arrival order is tracked.
+     */
+    public int expireOlderThan(int time_in) throws NoSuchAlgorithmException {
+        if (!trackArrivals) {
+            throw new IllegalStateException("Arrival order is not tracked");
+        }
+        log(CreditUnionJournal.EXPIRE, null, time_in);
+        int expired = cq.expireOlderThan(time_in).size();
+        walkedOut += expired;
+        checkpoint();
+        return expired;
+    }
+
+    /**
+     * Write a snapshot to the journal and start a new log after it.
+     */
+    public void snapshot() throws IOException, NoSuchAlgorithmException {
+        if (journal == null) {
+            throw new IllegalStateException("No journal");
+        }
+        journal.snapshot(this, cq);
+    }
+
+    /**
+     * Put counters and waiting Customers back from a snapshot.
+     * The Customers are in queue array order.
+     */
+    void restore(int processed, int seenByManager, int sentToBank, int walkedOut,
+                 List<Customer> waiting, boolean[] indexed) throws NoSuchAlgorithmException {
+        this.processed = processed;
+        this.seenByManager = seenByManager;
+        this.sentToBank = sentToBank;
+        this.walkedOut = walkedOut;
+        cq.restore(waiting, indexed);
+    }
+
+    private void log(byte op, String name, int investment) {
+        if (journal != null) {
+            journal.append(op, name, investment);
+        }
+    }
+
+    /**
+     * Take a snapshot if the journal asks for one.
+     * Called once an operation has been fully applied.
+     */
+    private void checkpoint() throws NoSuchAlgorithmException {
+        if (journal != null && journal.snapshotDue()) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     /**
      * Indicates that Customer c has been sent to the Bank
      */
     private void sendToBank(Customer c) {
-        System.out.println("Customer " + c + " sent to Bank.");
+        if (!replaying) {
+            sink.publish(c, Outcome.SENT_TO_BANK);
+        }
         sentToBank++;
     }
 
@@ -140,10 +429,32 @@ public class CreditUnion {
      * Indicates that a Customer is being seen by a Manager
      */
     private void seeManager(Customer c) {
-        System.out.println("Customer " + c + " is seeing a manager.");
+        if (!replaying) {
+            sink.publish(c, Outcome.SEEN_BY_MANAGER);
+        }
         seenByManager++;
     }
 
+    /**
+     * Return this CreditUnion's metrics,
+     * or null unless the JVM was started with -Dcreditunion.metrics=true.
+     */
+    public CreditUnionMetrics metrics() {
+        return metrics;
+    }
+
+    NewCustomerQueue queue() {
+        return cq;
+    }
+
+    /**
+     * Return the key of the Customer seeNext would pick,
+     * or Long.MIN_VALUE if the queue is empty.
+     */
+    long maxKey() {
+        return cq.isEmpty() ? Long.MIN_VALUE : cq.getMax().key();
+    }
+
     public int processed() {
         return processed;
     }
@@ -0,0 +1,405 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable state for a CreditUnion: an append-only binary write-ahead
+ * log of process / seeNext / walk_out / handle_emergency /
+ * expireOlderThan calls plus
+ * periodic snapshots of the queue array and counters.
+ *
+ * Records are buffered and written with one fsync per groupCommit
+ * records, or once the oldest has waited maxDelayMillis, so a crash
+ * loses at most the last uncommitted group. A background thread does
+ * the timed fsyncs. Buffering is synchronized on the journal; a
+ * commit swaps the buffer out under that lock and writes it under a
+ * separate io lock, so appends go on while the flusher fsyncs.
+ * Each snapshot starts a new log generation; recovery loads the
+ * snapshot and replays the log of its generation, reading it a
+ * buffer at a time.
+ */
+public class CreditUnionJournal implements AutoCloseable {
+
+    static final byte PROCESS = 1;
+    static final byte SEE_NEXT = 2;
+    static final byte WALK_OUT = 3;
+    static final byte EMERGENCY = 4;
+    static final byte EXPIRE = 5;
+
+    private static final int SNAPSHOT_MAGIC = 0x43555331;
+    private static final String SNAPSHOT = "snapshot";
+    /**
+     * Records between snapshots unless told otherwise, so the log of
+     * one generation stays in the tens of MB.
+     */
+    static final int DEFAULT_SNAPSHOT_EVERY = 1 << 20;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+    /**
+     * Longest name a record may carry, in UTF-8 bytes, as for a
+     * binary trace. Recovery treats a longer length as a torn record.
+     */
+    static final int MAX_NAME_BYTES = 1 << 16;
+    private static final int REPLAY_BUFFER = 1 << 20;
+
+    private final Path dir;
+    private final int groupCommit;
+    private final int snapshotEvery;
+    private final long maxDelayMillis;
+    private ScheduledExecutorService flusher;
+    private volatile IOException failure;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    /**
+     * The buffer pending is swapped with on commit. Guarded by io,
+     * as are log writes and replacing log.
+     */
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private final ReentrantLock io = new ReentrantLock();
+    private int pendingRecords;
+    /**
+     * System.nanoTime() when the oldest buffered record was appended.
+     */
+    private long pendingSince;
+    private int sinceSnapshot;
+    private long generation;
+    private FileChannel log;
+
+    /**
+     * Keep state in dir, fsync every groupCommit records or after
+     * DEFAULT_MAX_DELAY_MILLIS, and snapshot every
+     * DEFAULT_SNAPSHOT_EVERY records.
+     */
+    public CreditUnionJournal(Path dir, int groupCommit) throws IOException {
+        this(dir, groupCommit, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * Same as above, taking a snapshot after every snapshotEvery
+     * records (0 for never).
+     */
+    public CreditUnionJournal(Path dir, int groupCommit, int snapshotEvery) throws IOException {
+        this(dir, groupCommit, snapshotEvery, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Same as above, with a partial group fsynced once it has waited
+     * up to maxDelayMillis (0 for only when full or on sync/close).
+     */
+    public CreditUnionJournal(Path dir, int groupCommit, int snapshotEvery, long maxDelayMillis)
+            throws IOException {
+        if (groupCommit < 1) {
+            throw new IllegalArgumentException("Group commit must be at least 1: " + groupCommit);
+        }
+        this.dir = dir;
+        this.groupCommit = groupCommit;
+        this.snapshotEvery = snapshotEvery;
+        this.maxDelayMillis = maxDelayMillis;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Load the latest snapshot into cu, replay the log after it and
+     * open the log for appending. A torn record at the end of the log
+     * is cut off.
+     */
+    void recover(CreditUnion cu) throws IOException, NoSuchAlgorithmException {
+        Path snapshot = dir.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+            if (in.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + snapshot);
+            }
+            generation = in.getLong();
+            int processed = in.getInt();
+            int seenByManager = in.getInt();
+            int sentToBank = in.getInt();
+            int walkedOut = in.getInt();
+            int size = in.getInt();
+            List<Customer> waiting = new ArrayList<>(size);
+            boolean[] indexed = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                String name = getName(in);
+                int investment = in.getInt();
+                waiting.add(new Customer(name, investment, in.getLong()));
+                indexed[i] = in.get() != 0;
+            }
+            cu.restore(processed, seenByManager, sentToBank, walkedOut, waiting, indexed);
+        }
+        log = FileChannel.open(logPath(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = replay(log, cu);
+        log.truncate(end);
+        log.position(end);
+        if (maxDelayMillis > 0 && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, maxDelayMillis / 2);
+            flusher.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replay the log a buffer at a time, carrying a record cut by the
+     * end of the buffer over to the next read. Return the offset after
+     * the last intact record.
+     */
+    private long replay(FileChannel log, CreditUnion cu) throws IOException, NoSuchAlgorithmException {
+        ByteBuffer in = ByteBuffer.allocate(REPLAY_BUFFER);
+        long base = 0;
+        boolean eof = false;
+        while (true) {
+            while (in.hasRemaining() && !eof) {
+                eof = log.read(in) < 0;
+            }
+            in.flip();
+            int stop = replay(in, cu);
+            if (eof || !cutOff(in, stop)) {
+                return base + stop;
+            }
+            in.compact();
+            base += stop;
+        }
+    }
+
+    /**
+     * Return true if replay stopped at stop because the record there
+     * runs past the end of the buffer, rather than because it is bad.
+     */
+    private static boolean cutOff(ByteBuffer in, int stop) {
+        int left = in.limit() - stop;
+        if (left < 13) {
+            return true;
+        }
+        int length = in.getInt(stop + 5);
+        return length >= 0 && length <= MAX_NAME_BYTES && left < 13 + length;
+    }
+
+    /**
+     * Apply every intact record in the buffer to cu. Return the offset
+     * after the last one.
+     */
+    private int replay(ByteBuffer in, CreditUnion cu) throws NoSuchAlgorithmException {
+        while (in.remaining() >= 13) {
+            int start = in.position();
+            byte op = in.get();
+            int investment = in.getInt();
+            int length = in.getInt();
+            if (length < 0 || length > MAX_NAME_BYTES || in.remaining() < length + 4) {
+                in.position(start);
+                break;
+            }
+            String name = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            crc.reset();
+            crc.update(in.array(), start, in.position() - start);
+            if ((int) crc.getValue() != in.getInt()) {
+                in.position(start);
+                break;
+            }
+            switch (op) {
+                case PROCESS -> cu.process(name, investment);
+                case SEE_NEXT -> cu.seeNext();
+                case WALK_OUT -> cu.walk_out(name);
+                case EMERGENCY -> cu.applyEmergency(name, investment);
+                case EXPIRE -> cu.expireOlderThan(investment);
+                default -> {
+                    in.position(start);
+                    return start;
+                }
+            }
+        }
+        return in.position();
+    }
+
+    /**
+     * Buffer one record; commit once groupCommit records are waiting.
+     * Throws IllegalArgumentException for a name over MAX_NAME_BYTES,
+     * which recovery could not read back.
+     */
+    synchronized void append(byte op, String name, int investment) {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Name of " + bytes.length + " bytes is longer than "
+                    + MAX_NAME_BYTES);
+        }
+        int length = 13 + bytes.length;
+        if (pending.remaining() < length) {
+            sync();
+            if (pending.capacity() < length) {
+                pending = ByteBuffer.allocate(Math.max(2 * pending.capacity(), length));
+            }
+        }
+        if (pendingRecords == 0) {
+            pendingSince = System.nanoTime();
+        }
+        int start = pending.position();
+        pending.put(op).putInt(investment).putInt(bytes.length).put(bytes);
+        crc.reset();
+        crc.update(pending.array(), start, pending.position() - start);
+        pending.putInt((int) crc.getValue());
+        sinceSnapshot++;
+        if (++pendingRecords >= groupCommit) {
+            sync();
+        }
+    }
+
+    /**
+     * Return true if enough records were logged since the last
+     * snapshot to take another one.
+     */
+    boolean snapshotDue() {
+        return snapshotEvery > 0 && sinceSnapshot >= snapshotEvery;
+    }
+
+    /**
+     * Timed commit of a partial group, on the flusher thread. It runs
+     * every maxDelayMillis / 2 and commits once the oldest record has
+     * waited that long, so none waits more than about maxDelayMillis,
+     * and a busy journal filling whole groups is left alone.
+     */
+    private void flush() {
+        synchronized (this) {
+            long period = Math.max(1, maxDelayMillis / 2) * 1_000_000;
+            if (pendingRecords == 0 || System.nanoTime() - pendingSince < period) {
+                return;
+            }
+        }
+        try {
+            sync();
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+        }
+    }
+
+    /**
+     * Write and fsync every buffered record. io is taken before the
+     * journal lock is let go, so buffers reach the log in the order
+     * they were swapped out.
+     */
+    public void sync() {
+        ByteBuffer out;
+        synchronized (this) {
+            if (pendingRecords == 0) {
+                return;
+            }
+            io.lock();
+            out = pending;
+            pending = spare;
+            pendingRecords = 0;
+        }
+        try {
+            out.flip();
+            while (out.hasRemaining()) {
+                log.write(out);
+            }
+            log.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out.clear();
+            spare = out;
+            io.unlock();
+        }
+    }
+
+    /**
+     * Write a snapshot of cu and start a new log generation.
+     * The snapshot is written to a temporary file and renamed into
+     * place, so a crash leaves either the old or the new one.
+     */
+    synchronized void snapshot(CreditUnion cu, NewCustomerQueue cq) throws IOException, NoSuchAlgorithmException {
+        sync();
+        long next = generation + 1;
+        int size = cq.size();
+        Customer[] array = cq.getArray();
+        ByteBuffer out = ByteBuffer.allocate(36 + size * 33);
+        out.putInt(SNAPSHOT_MAGIC).putLong(next);
+        out.putInt(cu.processed()).putInt(cu.seenByManager()).putInt(cu.sentToBank()).putInt(cu.walkedOut());
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            Customer c = array[i];
+            byte[] name = c.name().getBytes(StandardCharsets.UTF_8);
+            if (out.remaining() < name.length + 17) {
+                out = ByteBuffer.allocate(2 * out.capacity() + name.length).put(out.flip());
+            }
+            out.putInt(name.length).put(name).putInt(c.investment()).putLong(c.time_in());
+            // Names can repeat in the queue; only one of them is indexed
+            out.put((byte) (cq.getCustomer(c.name()) == c ? 1 : 0));
+        }
+        out.flip();
+        FileChannel nextLog = FileChannel.open(logPath(next), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        io.lock();
+        try {
+            log.close();
+            log = nextLog;
+        } finally {
+            io.unlock();
+        }
+        Files.deleteIfExists(logPath(generation));
+        generation = next;
+        sinceSnapshot = 0;
+    }
+
+    private Path logPath(long generation) {
+        return dir.resolve("wal." + generation);
+    }
+
+    private static String getName(ByteBuffer in) {
+        int length = in.getInt();
+        String name = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return name;
+    }
+
+    /**
+     * Commit anything buffered and close the log.
+     */
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (log != null) {
+                sync();
+                log.close();
+            }
+        }
+    }
+
+}
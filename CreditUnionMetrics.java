@@ -0,0 +1,183 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and gauges for one CreditUnion.
+ * Off unless the JVM is started with -Dcreditunion.metrics=true;
+ * ENABLED is a constant, so when it is false the JIT removes the
+ * timing and counting code guarded by it.
+ * The CreditUnion is not thread-safe, so its own thread publishes the
+ * gauges as an immutable snapshot every PUBLISH_EVERY operations and
+ * the MXBean getters only read the latest one.
+ */
+public class CreditUnionMetrics implements CreditUnionMetricsMXBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("creditunion.metrics");
+
+    final LatencyHistogram process = new LatencyHistogram();
+    final LatencyHistogram seeNext = new LatencyHistogram();
+    final LatencyHistogram emergency = new LatencyHistogram();
+    final LatencyHistogram walkOut = new LatencyHistogram();
+    private final CreditUnion cu;
+    private static final int PUBLISH_EVERY = 256;
+    /**
+     * Operations since the index was last scanned for probe lengths.
+     * A scan covers the whole table, so it is redone only once there
+     * have been as many operations as the CreditUnion's capacity.
+     */
+    private int sinceScan;
+    private int sincePublish;
+    private int[] probeLengths;
+    private volatile Gauges gauges = new Gauges(0, 0, new int[0], 0, 0, 0, 0, 0);
+
+    CreditUnionMetrics(CreditUnion cu) {
+        this.cu = cu;
+    }
+
+    /**
+     * Return a System.nanoTime() reading, or 0 when metrics are off.
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Export these metrics on the platform MBean server
+     * as CreditUnion:type=Metrics,name=name.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("CreditUnion:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public LatencyHistogram process() {
+        return process;
+    }
+
+    public LatencyHistogram seeNext() {
+        return seeNext;
+    }
+
+    public LatencyHistogram emergency() {
+        return emergency;
+    }
+
+    public LatencyHistogram walkOut() {
+        return walkOut;
+    }
+
+    /**
+     * Called by the CreditUnion after each operation, on its own
+     * thread: publish fresh gauges every PUBLISH_EVERY operations.
+     */
+    void afterOperation() {
+        sinceScan++;
+        if (++sincePublish >= PUBLISH_EVERY) {
+            publish();
+        }
+    }
+
+    /**
+     * Read the gauges from the CreditUnion, on its own thread, and make
+     * them visible to readers.
+     */
+    void publish() {
+        NewCustomerQueue queue = cu.queue();
+        if (probeLengths == null || sinceScan >= cu.capacity()) {
+            sinceScan = 0;
+            probeLengths = queue.index().probeLengths();
+        }
+        sincePublish = 0;
+        gauges = new Gauges(queue.size(), queue.index().loadFactor(), probeLengths, queue.siftSteps(),
+                cu.processed(), cu.sentToBank(), cu.seenByManager(), cu.walkedOut());
+    }
+
+    public int getQueueDepth() {
+        return gauges.queueDepth;
+    }
+
+    public double getIndexLoadFactor() {
+        return gauges.indexLoadFactor;
+    }
+
+    public int[] getIndexProbeLengths() {
+        return gauges.indexProbeLengths.clone();
+    }
+
+    public long getSiftSteps() {
+        return gauges.siftSteps;
+    }
+
+    public int getProcessed() {
+        return gauges.processed;
+    }
+
+    public int getSentToBank() {
+        return gauges.sentToBank;
+    }
+
+    public int getSeenByManager() {
+        return gauges.seenByManager;
+    }
+
+    public int getWalkedOut() {
+        return gauges.walkedOut;
+    }
+
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        summarize(latencies, "process", process);
+        summarize(latencies, "seeNext", seeNext);
+        summarize(latencies, "handle_emergency", emergency);
+        summarize(latencies, "walk_out", walkOut);
+        return latencies;
+    }
+
+    private static void summarize(Map<String, Long> latencies, String operation, LatencyHistogram histogram) {
+        latencies.put(operation + ".count", histogram.count());
+        latencies.put(operation + ".p50", histogram.percentile(0.5));
+        latencies.put(operation + ".p99", histogram.percentile(0.99));
+        latencies.put(operation + ".p999", histogram.percentile(0.999));
+        latencies.put(operation + ".max", histogram.max());
+    }
+
+    /**
+     * The gauges as of one publish.
+     */
+    private static class Gauges {
+        final int queueDepth;
+        final double indexLoadFactor;
+        final int[] indexProbeLengths;
+        final long siftSteps;
+        final int processed;
+        final int sentToBank;
+        final int seenByManager;
+        final int walkedOut;
+
+        Gauges(int queueDepth, double indexLoadFactor, int[] indexProbeLengths, long siftSteps,
+                int processed, int sentToBank, int seenByManager, int walkedOut) {
+            this.queueDepth = queueDepth;
+            this.indexLoadFactor = indexLoadFactor;
+            this.indexProbeLengths = indexProbeLengths;
+            this.siftSteps = siftSteps;
+            this.processed = processed;
+            this.sentToBank = sentToBank;
+            this.seenByManager = seenByManager;
+            this.walkedOut = walkedOut;
+        }
+    }
+
+    public String toString() {
+        return "queue depth " + getQueueDepth() + ", index load factor " + String.format("%.2f", getIndexLoadFactor())
+                + ", sift steps " + getSiftSteps()
+                + "\n  process          " + process
+                + "\n  seeNext          " + seeNext
+                + "\n  handle_emergency " + emergency
+                + "\n  walk_out         " + walkOut;
+    }
+
+}
@@ -0,0 +1,36 @@
+import java.util.Map;
+
+/**
+ * JMX view of a CreditUnion's CreditUnionMetrics. The gauges are as of
+ * the CreditUnion's last publish, at most a few hundred operations ago.
+ */
+public interface CreditUnionMetricsMXBean {
+
+    int getQueueDepth();
+
+    double getIndexLoadFactor();
+
+    /**
+     * Element k is the number of waiting Customers the index finds
+     * on its k+1th probe. The index is rescanned about once per
+     * capacity's worth of operations.
+     */
+    int[] getIndexProbeLengths();
+
+    long getSiftSteps();
+
+    int getProcessed();
+
+    int getSentToBank();
+
+    int getSeenByManager();
+
+    int getWalkedOut();
+
+    /**
+     * Latency summaries in ns keyed "operation.statistic",
+     * e.g. "process.p99" or "seeNext.count".
+     */
+    Map<String, Long> getLatencies();
+
+}
@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Front-end serving one CreditUnion to many callers.
+ * Callers run on their own threads, one virtual thread per connection
+ * where the JVM has them, and hand each operation to a bounded queue.
+ * A single event-loop thread owns the CreditUnion: it drains whatever
+ * requests have queued up and applies them in order, running
+ * consecutive process requests as one processBatch. Nothing in
+ * CreditUnion is shared, so nothing is locked.
+ *
+ * Socket protocol, one request per line, one reply line each:
+ *   PROCESS name investment   -> name, evicted name, or -
+ *   SEE_NEXT                  -> name or -
+ *   EMERGENCY name            -> true or false
+ *   WALK_OUT name             -> OK
+ * Malformed requests get ERROR and a message.
+ */
+public class CreditUnionServer implements AutoCloseable {
+
+    private static final int DEFAULT_QUEUE = 4096;
+    private static final int MAX_BATCH = 256;
+
+    private static final int PROCESS = 0;
+    private static final int SEE_NEXT = 1;
+    private static final int EMERGENCY = 2;
+    private static final int WALK_OUT = 3;
+    private static final int STOP = 4;
+
+    private final CreditUnion cu;
+    private final BlockingQueue<Request> requests;
+    private final Thread loop;
+    private final ExecutorService callers = newCallerExecutor();
+    private ServerSocket server;
+    private Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * One queued operation and the future its reply goes to.
+     */
+    private static class Request {
+        final int op;
+        final String name;
+        final int investment;
+        final CompletableFuture<String> reply = new CompletableFuture<>();
+
+        Request(int op, String name, int investment) {
+            this.op = op;
+            this.name = name;
+            this.investment = investment;
+        }
+    }
+
+    public CreditUnionServer(CreditUnion cu) {
+        this(cu, DEFAULT_QUEUE);
+    }
+
+    /**
+     * Serve cu, which must not be used elsewhere afterwards.
+     * At most queueSize requests wait for the event loop; callers
+     * beyond that block until it catches up.
+     */
+    public CreditUnionServer(CreditUnion cu, int queueSize) {
+        this.cu = cu;
+        this.requests = new ArrayBlockingQueue<>(queueSize);
+        this.loop = new Thread(this::run, "credit-union-loop");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * One virtual thread per task on JVMs that have them (21+),
+     * otherwise a cached pool of platform threads.
+     */
+    private static ExecutorService newCallerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "credit-union-caller");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public String process(String name, int investment) throws InterruptedException, ExecutionException {
+        return call(new Request(PROCESS, name, investment));
+    }
+
+    public String seeNext() throws InterruptedException, ExecutionException {
+        return call(new Request(SEE_NEXT, null, 0));
+    }
+
+    public boolean handle_emergency(String name) throws InterruptedException, ExecutionException {
+        return Boolean.parseBoolean(call(new Request(EMERGENCY, name, 0)));
+    }
+
+    public void walk_out(String name) throws InterruptedException, ExecutionException {
+        call(new Request(WALK_OUT, name, 0));
+    }
+
+    /**
+     * Queue request, blocking while the queue is full, and wait for
+     * the event loop's reply. If close() began meanwhile, the request
+     * may have arrived after the loop stopped and close() drained the
+     * queue; once the loop is done, a request still queued is taken
+     * back and rejected so the caller does not wait forever.
+     */
+    private String call(Request request) throws InterruptedException, ExecutionException {
+        if (closed) {
+            throw new IllegalStateException("Server is closed");
+        }
+        requests.put(request);
+        if (closed) {
+            loop.join();
+            if (requests.remove(request)) {
+                reject(List.of(request));
+            }
+        }
+        return request.reply.get();
+    }
+
+    /**
+     * The event loop: wait for a request, take everything else queued
+     * behind it, and apply the batch.
+     */
+    private void run() {
+        List<Request> batch = new ArrayList<>(MAX_BATCH);
+        List<Request> arrivals = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(requests.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            requests.drainTo(batch, MAX_BATCH - 1);
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                if (request.op == STOP) {
+                    flush(arrivals);
+                    reject(batch.subList(i + 1, batch.size()));
+                    return;
+                }
+                if (request.op == PROCESS) {
+                    arrivals.add(request);
+                    continue;
+                }
+                flush(arrivals);
+                apply(request);
+            }
+            flush(arrivals);
+            batch.clear();
+        }
+    }
+
+    private static void reject(List<Request> late) {
+        for (Request request : late) {
+            request.reply.completeExceptionally(new IllegalStateException("Server is closed"));
+        }
+    }
+
+    /**
+     * Process a run of arrivals with one processBatch call.
+     */
+    private void flush(List<Request> arrivals) {
+        if (arrivals.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(arrivals.size());
+        for (Request request : arrivals) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(request.name, request.investment));
+        }
+        try {
+            List<String> results = cu.processBatch(entries);
+            for (int i = 0; i < arrivals.size(); i++) {
+                arrivals.get(i).reply.complete(results.get(i));
+            }
+        } catch (Exception e) {
+            for (Request request : arrivals) {
+                request.reply.completeExceptionally(e);
+            }
+        }
+        arrivals.clear();
+    }
+
+    private void apply(Request request) {
+        try {
+            switch (request.op) {
+                case SEE_NEXT -> request.reply.complete(cu.seeNext());
+                case EMERGENCY -> request.reply.complete(String.valueOf(cu.handle_emergency(request.name)));
+                case WALK_OUT -> {
+                    cu.walk_out(request.name);
+                    request.reply.complete(null);
+                }
+                default -> throw new IllegalStateException("Unknown op " + request.op);
+            }
+        } catch (Exception e) {
+            request.reply.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Accept socket connections on the loopback address, port 0 for
+     * any free port, each served on its own caller thread.
+     * Return the port.
+     */
+    public synchronized int listen(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Already listening on " + server.getLocalPort());
+        }
+        server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "credit-union-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                callers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Accept failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer one connection's requests until it closes.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(handle(line));
+                out.write('\n');
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run one protocol line and return the reply line.
+     */
+    private String handle(String line) throws InterruptedException {
+        String[] parts = line.trim().split("\\s+");
+        try {
+            switch (parts[0]) {
+                case "PROCESS" -> {
+                    String result = process(parts[1], Integer.parseInt(parts[2]));
+                    return result == null ? "-" : result;
+                }
+                case "SEE_NEXT" -> {
+                    String result = seeNext();
+                    return result == null ? "-" : result;
+                }
+                case "EMERGENCY" -> {
+                    return String.valueOf(handle_emergency(parts[1]));
+                }
+                case "WALK_OUT" -> {
+                    walk_out(parts[1]);
+                    return "OK";
+                }
+                default -> {
+                    return "ERROR unknown request " + parts[0];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            return "ERROR malformed request: " + line;
+        } catch (ExecutionException | IllegalStateException e) {
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Stop accepting connections, finish queued requests and stop the
+     * event loop. An interrupt does not cut this short, since the loop
+     * must still see STOP; it is kept set for the caller.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        synchronized (this) {
+            if (server != null) {
+                server.close();
+                interrupted |= uninterruptibly(acceptor::join);
+            }
+        }
+        Request stop = new Request(STOP, null, 0);
+        interrupted |= uninterruptibly(() -> requests.put(stop));
+        interrupted |= uninterruptibly(loop::join);
+        List<Request> late = new ArrayList<>();
+        requests.drainTo(late);
+        reject(late);
+        callers.shutdownNow();
+        try {
+            callers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Blocking {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * Run a blocking step to completion, retrying if interrupted, and
+     * return whether it was interrupted.
+     */
+    private static boolean uninterruptibly(Blocking step) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                step.run();
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+}
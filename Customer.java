@@ -4,12 +4,37 @@ public class Customer {
     private int investment;
     private final long time_in;
     private int posInQueue;
+    /**
+     * Id of name in the NameTable of the IdIndex holding this Customer,
+     * or -1.
+     */
+    private int nameId = -1;
+    /**
+     * Ordering key: investment in the high 32 bits and the inverted
+     * low 32 bits of time_in below it, so a larger key means a higher
+     * investment or, on a tie, an earlier arrival.
+     */
+    private long key;
+    /**
+     * Neighbours in a NewCustomerQueue's arrival order, if it keeps one.
+     */
+    Customer earlier;
+    Customer later;
 
     public Customer(String name, int investment, long time_in) {
         this.name = name;
         this.investment = investment;
         this.time_in = time_in;
         this.posInQueue = -1;
+        this.key = key(investment, time_in);
+    }
+
+    /**
+     * Pack investment and arrival into one key.
+     * Only the low 32 bits of time_in take part in the ordering.
+     */
+    public static long key(int investment, long time_in) {
+        return ((long) investment << 32) | (~time_in & 0xFFFFFFFFL);
     }
 
     public String name() {
@@ -22,18 +47,19 @@ public class Customer {
 
     public void setInvestment(int investment) {
         this.investment = investment;
+        this.key = key(investment, time_in);
     }
 
     public long time_in() {
         return this.time_in;
     }
 
+    public long key() {
+        return this.key;
+    }
+
     public long compareTo(Customer other) {
-        long diff = this.investment - other.investment();
-        if (diff == 0) {
-            diff = other.time_in() - this.time_in;
-        }
-        return diff;
+        return Long.compare(this.key, other.key);
     }
 
     public String toString() {
@@ -56,4 +82,12 @@ public class Customer {
         this.posInQueue = pos;
     }
 
+    int nameId() {
+        return nameId;
+    }
+
+    void setNameId(int nameId) {
+        this.nameId = nameId;
+    }
+
 }
\ No newline at end of file
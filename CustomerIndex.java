@@ -0,0 +1,52 @@
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Name to Customer lookup used by NewCustomerQueue.
+ */
+public interface CustomerIndex {
+
+    /**
+     * Return the Customer with the given name
+     * or null if the Customer is not in the index.
+     */
+    Customer get(String name) throws NoSuchAlgorithmException;
+
+    /**
+     * Put Customer c into the index.
+     * Does nothing if a Customer with the same name is already there.
+     */
+    void put(Customer c) throws NoSuchAlgorithmException;
+
+    /**
+     * Remove and return the Customer with the given name.
+     * Return null if Customer doesn't exist.
+     */
+    Customer remove(String name) throws NoSuchAlgorithmException;
+
+    /**
+     * Remove the entry under Customer c's name and return the Customer
+     * it held, or null. Indexes that can find c's entry without
+     * hashing its name override this.
+     */
+    default Customer remove(Customer c) throws NoSuchAlgorithmException {
+        return remove(c.name());
+    }
+
+    /**
+     * Return the number of Customers in the index.
+     */
+    int size();
+
+    /**
+     * Return the number of Customers per table slot.
+     */
+    double loadFactor();
+
+    /**
+     * Return how many entries a lookup inspects to find each Customer:
+     * element k is the number of Customers found on the k+1th probe.
+     * Scans the whole table.
+     */
+    int[] probeLengths();
+
+}
@@ -1,6 +1,7 @@
 public class CustomerQueue {
 
     private final Customer[] array;
+    private int size;
 
     public CustomerQueue(int capacity) {
         this.array = new Customer[capacity];
@@ -12,18 +13,12 @@ public class CustomerQueue {
      * Return -1 if the customer could not be inserted.
      */
     public int insert(Customer c) {
-        if (size() == array.length) {
+        if (size == array.length) {
             return -1;
         }
-        c.setPosInQueue(size());
-        array[size()] = c;
-        while (true) {
-            if (c.compareTo(parent(c)) > 0) {
-                swap(parent(c), c);
-            } else {
-                break;
-            }
-        }
+        c.setPosInQueue(size);
+        array[size++] = c;
+        swim(c);
         return c.posInQueue();
     }
 
@@ -35,42 +30,9 @@ public class CustomerQueue {
     public Customer delMax() {
         if (isEmpty()) {
             return null;
-        } else if (size() == 1) {
-            Customer removed = getMax();
-            removed.setPosInQueue(-1);
-            array[0] = null;
-            return removed;
         }
         Customer removed = getMax();
-        swap(array[0], array[size() - 1]);
-        array[size() - 1] = null;
-        Customer swim = array[0];
-        while (true) {
-            Customer left = left_child(swim);
-            Customer right = right_child(swim);
-            if (right == null && left == null) {
-                break;
-            } else if (right == null && left.compareTo(swim) > 0) {
-                swap(swim, left);
-            } else if (right != null && left != null) {
-                if (left.compareTo(right) > 0) {
-                    if (left.compareTo(swim) > 0) {
-                        swap(swim, left);
-                    } else {
-                        break;
-                    }
-                } else {
-                    if (right.compareTo(swim) > 0) {
-                        swap(swim, right);
-                    } else {
-                        break;
-                    }
-                }
-            } else {
-                break;
-            }
-        }
-        removed.setPosInQueue(-1);
+        removeAt(0);
         return removed;
     }
 
@@ -85,20 +47,64 @@ public class CustomerQueue {
      * Return the number of customers currently in the queue.
      */
     public int size() {
-        int customers = 0;
-        for (Customer customer : array) {
-            if (customer != null) {
-                customers++;
-            }
-        }
-        return customers;
+        return size;
     }
 
     /**
      * Return true if the queue is empty; false else.
      */
     public boolean isEmpty() {
-        return size() == 0;
+        return size == 0;
+    }
+
+    /**
+     * Take the customer at index out of the heap: the last customer
+     * fills the hole and is moved up or down to restore heap order.
+     */
+    private void removeAt(int index) {
+        Customer removed = array[index];
+        int last = --size;
+        if (index != last) {
+            swap(removed, array[last]);
+            Customer moved = array[index];
+            array[last] = null;
+            swim(moved);
+            sink(moved);
+        } else {
+            array[last] = null;
+        }
+        removed.setPosInQueue(-1);
+    }
+
+    /**
+     * Move c up while it is greater than its parent.
+     */
+    private void swim(Customer c) {
+        while (c.posInQueue() > 0 && c.compareTo(parent(c)) > 0) {
+            swap(parent(c), c);
+        }
+    }
+
+    /**
+     * Move c down while one of its children is greater than it.
+     * On a tie between the children the right one is taken.
+     */
+    private void sink(Customer c) {
+        while (true) {
+            int left = 2 * c.posInQueue() + 1;
+            if (left >= size) {
+                break;
+            }
+            Customer child = array[left];
+            if (left + 1 < size && !(child.compareTo(array[left + 1]) > 0)) {
+                child = array[left + 1];
+            }
+            if (child.compareTo(c) > 0) {
+                swap(c, child);
+            } else {
+                break;
+            }
+        }
     }
 
     /**
@@ -119,28 +125,6 @@ public class CustomerQueue {
         return array[(c.posInQueue() - 1) / 2];
     }
 
-    /**
-     * Returns the left child of the given customer index.
-     */
-    private Customer left_child(Customer c) {
-        int index = 2 * c.posInQueue() + 1;
-        if (index >= size()) {
-            return null;
-        }
-        return array[index];
-    }
-
-    /**
-     * Returns the right child of the given customer index.
-     */
-    private Customer right_child(Customer c) {
-        int index = 2 * c.posInQueue() + 2;
-        if (index >= size()) {
-            return null;
-        }
-        return array[index];
-    }
-
     /**
      * Used for testing underlying data structure
      */
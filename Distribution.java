@@ -0,0 +1,41 @@
+import java.util.random.RandomGenerator;
+
+/**
+ * A random quantity for simulations, e.g. minutes between arrivals.
+ */
+public interface Distribution {
+
+    /**
+     * Draw one value.
+     */
+    double sample(RandomGenerator random);
+
+    /**
+     * Always the given value.
+     */
+    static Distribution constant(double value) {
+        return random -> value;
+    }
+
+    /**
+     * Uniform over [low, high).
+     */
+    static Distribution uniform(double low, double high) {
+        return random -> low + (high - low) * random.nextDouble();
+    }
+
+    /**
+     * Exponential with the given mean, e.g. the gaps of a Poisson process.
+     */
+    static Distribution exponential(double mean) {
+        return random -> -mean * Math.log(1 - random.nextDouble());
+    }
+
+    /**
+     * Normal with the given mean and standard deviation.
+     */
+    static Distribution normal(double mean, double deviation) {
+        return random -> mean + deviation * random.nextGaussian();
+    }
+
+}
@@ -0,0 +1,12 @@
+/**
+ * Maps a customer name to a hash code.
+ * CBlockChain reduces the result to a bucket index.
+ */
+public interface HashStrategy {
+
+    /**
+     * Return the hash code for the given name.
+     */
+    int hash(String key);
+
+}
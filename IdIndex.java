@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/**
+ * CustomerIndex over interned names: a NameTable gives each waiting
+ * Customer's name a dense id and the Customer sits at that id in a
+ * plain array. The id is remembered on the Customer, so taking a
+ * Customer out needs neither its hash nor a string comparison.
+ */
+public class IdIndex implements CustomerIndex {
+
+    private final NameTable names;
+    private Customer[] customers;
+    private int size;
+
+    public IdIndex(int capacity) {
+        this(capacity, new MurmurHash());
+    }
+
+    public IdIndex(int capacity, HashStrategy hasher) {
+        this.names = new NameTable(capacity, hasher);
+        this.customers = new Customer[Math.max(1, capacity)];
+    }
+
+    public Customer get(String name) {
+        int id = names.id(name);
+        return id < 0 ? null : customers[id];
+    }
+
+    public void put(Customer c) {
+        int id = names.intern(c.name());
+        c.setNameId(id);
+        if (id >= customers.length) {
+            customers = Arrays.copyOf(customers, Math.max(2 * customers.length, id + 1));
+        }
+        if (customers[id] == null) {
+            customers[id] = c;
+            size++;
+        }
+    }
+
+    public Customer remove(String name) {
+        int id = names.id(name);
+        return id < 0 ? null : remove(id);
+    }
+
+    /**
+     * Use the id c was given by put, unless its name has since been
+     * released and the id handed to another name.
+     */
+    public Customer remove(Customer c) {
+        int id = c.nameId();
+        if (id < 0 || !c.name().equals(names.name(id))) {
+            return remove(c.name());
+        }
+        return remove(id);
+    }
+
+    private Customer remove(int id) {
+        Customer removed = customers[id];
+        customers[id] = null;
+        names.release(id);
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double loadFactor() {
+        return names.loadFactor();
+    }
+
+    public int[] probeLengths() {
+        int[] lengths = new int[0];
+        for (int id = 0; id < names.idLimit(); id++) {
+            if (customers[id] != null) {
+                int length = names.probeLength(id);
+                if (length == 0) {
+                    continue;
+                }
+                if (length > lengths.length) {
+                    lengths = Arrays.copyOf(lengths, length);
+                }
+                lengths[length - 1]++;
+            }
+        }
+        return lengths;
+    }
+
+}
@@ -0,0 +1,156 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Teller terminals for CreditUnionServer: many connections on
+ * localhost, each sending one request at a time and timing the reply.
+ * Run with: java LoadGenerator [connections] [requests per connection]
+ * to start a server on a free port and drive it.
+ */
+public class LoadGenerator {
+
+    private final int port;
+    private final int connections;
+    private final int requests;
+    private final int names;
+
+    /**
+     * Each connection sends requests requests about names drawn
+     * from a pool of the given size.
+     */
+    public LoadGenerator(int port, int connections, int requests, int names) {
+        this.port = port;
+        this.connections = connections;
+        this.requests = requests;
+        this.names = names;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        try (CreditUnionServer server = new CreditUnionServer(new CreditUnion(50_000, 950_000, OutcomeSink.NONE))) {
+            int port = server.listen(0);
+            System.out.println(new LoadGenerator(port, connections, requests, 100_000).run());
+        }
+    }
+
+    /**
+     * Run every connection to completion and return the combined
+     * request latencies in ns; the report's toString includes the
+     * throughput. If a connection fails or gets an error reply, the
+     * first such failure is thrown once every connection has stopped.
+     */
+    public Report run() throws IOException, InterruptedException {
+        LatencyHistogram[] latencies = new LatencyHistogram[connections];
+        Thread[] terminals = new Thread[connections];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < connections; t++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            SplittableRandom random = new SplittableRandom(t);
+            latencies[t] = histogram;
+            terminals[t] = new Thread(() -> {
+                try {
+                    terminal(random, histogram);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "terminal-" + t);
+        }
+        long start = System.nanoTime();
+        for (Thread terminal : terminals) {
+            terminal.start();
+        }
+        for (Thread terminal : terminals) {
+            terminal.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        Throwable first = failure.get();
+        if (first instanceof IOException e) {
+            throw e;
+        } else if (first instanceof RuntimeException e) {
+            throw e;
+        } else if (first instanceof Error e) {
+            throw e;
+        }
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram histogram : latencies) {
+            all.add(histogram);
+        }
+        return new Report(connections, all, elapsed);
+    }
+
+    /**
+     * One connection: mostly arrivals and managers, some emergencies
+     * and walk-outs.
+     */
+    private void terminal(SplittableRandom random, LatencyHistogram latencies) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            for (int i = 0; i < requests; i++) {
+                String name = "t" + random.nextInt(names);
+                int roll = random.nextInt(100);
+                String request;
+                if (roll < 50) {
+                    request = "PROCESS " + name + " " + random.nextInt(1_000_000);
+                } else if (roll < 80) {
+                    request = "SEE_NEXT";
+                } else if (roll < 95) {
+                    request = "EMERGENCY " + name;
+                } else {
+                    request = "WALK_OUT " + name;
+                }
+                long begin = System.nanoTime();
+                out.write(request);
+                out.write('\n');
+                out.flush();
+                String reply = in.readLine();
+                latencies.recordSince(begin);
+                if (reply == null || reply.startsWith("ERROR")) {
+                    throw new IllegalStateException(request + " -> " + reply);
+                }
+            }
+        }
+    }
+
+    /**
+     * Throughput and latency of one run.
+     */
+    public static class Report {
+        private final int connections;
+        private final LatencyHistogram latencies;
+        private final long elapsedNanos;
+
+        Report(int connections, LatencyHistogram latencies, long elapsedNanos) {
+            this.connections = connections;
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double requestsPerSecond() {
+            return latencies.count() * 1e9 / elapsedNanos;
+        }
+
+        public LatencyHistogram latencies() {
+            return latencies;
+        }
+
+        public String toString() {
+            return String.format("%d connections: %.0f requests/s, latency ns %s",
+                    connections, requestsPerSecond(), latencies);
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Off-heap version of NewCustomerQueue for very large queues.
+ * Customers are fixed-size records in a memory-mapped file; the heap
+ * and the name index hold record numbers instead of references, so
+ * the GC sees none of them. Reopening an existing file picks up the
+ * queue where it was left.
+ *
+ * Layout: header, heap (int record per slot), records, names (fixed
+ * number of UTF-16 chars per record) and an open-addressing name
+ * index (record + 1, 0 for empty) with backward-shift removal.
+ * Customers handed out are copies; change a queued Customer through
+ * update. Not thread-safe.
+ */
+public class MappedCustomerQueue implements AutoCloseable {
+
+    private static final int MAGIC = 0x4d435131;
+    private static final int HEADER = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_CAPACITY = 4;
+    private static final int H_NAME_CHARS = 8;
+    private static final int H_SIZE = 12;
+    private static final int H_USED = 16;
+    private static final int H_FREE = 20;
+
+    private static final int RECORD = 32;
+    private static final int R_KEY = 0;
+    private static final int R_TIME = 8;
+    private static final int R_INVESTMENT = 16;
+    private static final int R_POS = 20;
+    private static final int R_HASH = 24;
+    private static final int R_NAME_LENGTH = 28;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer heap;
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer names;
+    private final MappedByteBuffer index;
+    private final HashStrategy hasher = new MurmurHash();
+    private final int capacity;
+    private final int nameChars;
+    private final int indexMask;
+    private int size;
+
+    /**
+     * Open the queue stored in file, or create one holding capacity
+     * Customers with names of up to 32 chars.
+     */
+    public MappedCustomerQueue(Path file, int capacity) throws IOException {
+        this(file, capacity, 32);
+    }
+
+    /**
+     * Same as above with names of up to nameChars chars.
+     * An existing file must have been created with the same sizes.
+     */
+    public MappedCustomerQueue(Path file, int capacity, int nameChars) throws IOException {
+        this.capacity = capacity;
+        this.nameChars = nameChars;
+        int indexLength = Integer.highestOneBit(Math.max(2, 2 * capacity) - 1) << 1;
+        this.indexMask = indexLength - 1;
+        long heapBytes = 4L * capacity;
+        long recordBytes = (long) RECORD * capacity;
+        long nameBytes = 2L * nameChars * capacity;
+        long indexBytes = 4L * indexLength;
+        for (long bytes : new long[] {heapBytes, recordBytes, nameBytes, indexBytes}) {
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Capacity too large to map: " + capacity);
+            }
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        long position = 0;
+        header = map(position, HEADER);
+        heap = map(position += HEADER, heapBytes);
+        records = map(position += heapBytes, recordBytes);
+        names = map(position += recordBytes, nameBytes);
+        index = map(position += nameBytes, indexBytes);
+        if (created) {
+            header.putInt(H_CAPACITY, capacity);
+            header.putInt(H_NAME_CHARS, nameChars);
+            header.putInt(H_SIZE, 0);
+            header.putInt(H_USED, 0);
+            header.putInt(H_FREE, -1);
+            header.putInt(H_MAGIC, MAGIC);
+        } else if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_CAPACITY) != capacity
+                || header.getInt(H_NAME_CHARS) != nameChars) {
+            channel.close();
+            throw new IOException("Not a queue of capacity " + capacity + ": " + file);
+        }
+        size = header.getInt(H_SIZE);
+    }
+
+    private MappedByteBuffer map(long position, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+    }
+
+    /**
+     * Insert Customer c into queue.
+     * Return the final index at which the customer is stored.
+     * Return -1 if the customer could not be inserted.
+     */
+    public int insert(Customer c) {
+        if (size == capacity) {
+            return -1;
+        }
+        String name = c.name();
+        if (name.length() > nameChars) {
+            throw new IllegalArgumentException("Name longer than " + nameChars + " chars: " + name);
+        }
+        int record = allocate();
+        int base = record * RECORD;
+        int hash = hasher.hash(name);
+        records.putLong(base + R_KEY, c.key());
+        records.putLong(base + R_TIME, c.time_in());
+        records.putInt(base + R_INVESTMENT, c.investment());
+        records.putInt(base + R_HASH, hash);
+        records.putInt(base + R_NAME_LENGTH, name.length());
+        int nameBase = record * nameChars * 2;
+        for (int i = 0; i < name.length(); i++) {
+            names.putChar(nameBase + 2 * i, name.charAt(i));
+        }
+        indexPut(record, name, hash);
+        int pos = size;
+        setSize(size + 1);
+        put(pos, record);
+        pos = swim(pos);
+        c.setPosInQueue(pos);
+        return pos;
+    }
+
+    /**
+     * Remove and return the customer with the highest investment value.
+     * If there are multiple customers with the same investment value,
+     * return the one who arrived first.
+     */
+    public Customer delMax() {
+        if (isEmpty()) {
+            return null;
+        }
+        return removeAt(0);
+    }
+
+    /**
+     * Return but do not remove the first customer in the queue.
+     */
+    public Customer getMax() {
+        return isEmpty() ? null : customer(heap.getInt(0));
+    }
+
+    /**
+     * Return the number of customers currently in the queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return true if the queue is empty; false else.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove and return the Customer with name s from the queue.
+     * Return null if the Customer isn't in the queue.
+     */
+    public Customer remove(String s) {
+        int record = find(s);
+        return record < 0 ? null : removeAt(records.getInt(record * RECORD + R_POS));
+    }
+
+    /**
+     * Update the investment of the Customer with name s
+     * and move it up or down from its current slot.
+     */
+    public void update(String s, int investment) {
+        int record = find(s);
+        if (record < 0) {
+            return;
+        }
+        int base = record * RECORD;
+        records.putInt(base + R_INVESTMENT, investment);
+        records.putLong(base + R_KEY, Customer.key(investment, records.getLong(base + R_TIME)));
+        sink(swim(records.getInt(base + R_POS)));
+    }
+
+    /**
+     * Get a copy of the Customer with the given name,
+     * or null if they aren't in the queue.
+     */
+    public Customer getCustomer(String name) {
+        int record = find(name);
+        return record < 0 ? null : customer(record);
+    }
+
+    /**
+     * Write all changes through to the file.
+     */
+    public void force() {
+        header.force();
+        heap.force();
+        records.force();
+        names.force();
+        index.force();
+    }
+
+    /**
+     * Force changes to the file and close it. The mappings themselves
+     * are released once they are garbage collected.
+     */
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private Customer removeAt(int pos) {
+        int record = heap.getInt(4 * pos);
+        Customer removed = customer(record);
+        int last = size - 1;
+        setSize(last);
+        if (pos != last) {
+            put(pos, heap.getInt(4 * last));
+            sink(swim(pos));
+        }
+        indexRemove(record);
+        release(record);
+        removed.setPosInQueue(-1);
+        return removed;
+    }
+
+    /**
+     * Copy a record out into a Customer.
+     */
+    private Customer customer(int record) {
+        int base = record * RECORD;
+        char[] chars = new char[records.getInt(base + R_NAME_LENGTH)];
+        int nameBase = record * nameChars * 2;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = names.getChar(nameBase + 2 * i);
+        }
+        Customer c = new Customer(new String(chars), records.getInt(base + R_INVESTMENT),
+                records.getLong(base + R_TIME));
+        c.setPosInQueue(records.getInt(base + R_POS));
+        return c;
+    }
+
+    private void setSize(int size) {
+        this.size = size;
+        header.putInt(H_SIZE, size);
+    }
+
+    /**
+     * Take a record from the free list, or the next never-used one.
+     * Free records are chained through their position field.
+     */
+    private int allocate() {
+        int free = header.getInt(H_FREE);
+        if (free >= 0) {
+            header.putInt(H_FREE, records.getInt(free * RECORD + R_POS));
+            return free;
+        }
+        int used = header.getInt(H_USED);
+        header.putInt(H_USED, used + 1);
+        return used;
+    }
+
+    private void release(int record) {
+        records.putInt(record * RECORD + R_POS, header.getInt(H_FREE));
+        header.putInt(H_FREE, record);
+    }
+
+    /**
+     * Store record at heap slot pos.
+     */
+    private void put(int pos, int record) {
+        heap.putInt(4 * pos, record);
+        records.putInt(record * RECORD + R_POS, pos);
+    }
+
+    private long key(int pos) {
+        return records.getLong(heap.getInt(4 * pos) * RECORD + R_KEY);
+    }
+
+    private int swim(int pos) {
+        int record = heap.getInt(4 * pos);
+        long key = records.getLong(record * RECORD + R_KEY);
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (key <= key(parent)) {
+                break;
+            }
+            put(pos, heap.getInt(4 * parent));
+            pos = parent;
+        }
+        put(pos, record);
+        return pos;
+    }
+
+    /**
+     * On a tie between children the right one is taken,
+     * as in NewCustomerQueue.
+     */
+    private void sink(int pos) {
+        int record = heap.getInt(4 * pos);
+        long key = records.getLong(record * RECORD + R_KEY);
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && key(child) <= key(child + 1)) {
+                child++;
+            }
+            if (key(child) <= key) {
+                break;
+            }
+            put(pos, heap.getInt(4 * child));
+            pos = child;
+        }
+        put(pos, record);
+    }
+
+    private boolean nameEquals(int record, String name) {
+        if (records.getInt(record * RECORD + R_NAME_LENGTH) != name.length()) {
+            return false;
+        }
+        int nameBase = record * nameChars * 2;
+        for (int i = 0; i < name.length(); i++) {
+            if (names.getChar(nameBase + 2 * i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the record for the name or -1 if it isn't indexed.
+     */
+    private int find(String name) {
+        int hash = hasher.hash(name);
+        for (int i = hash & indexMask; ; i = (i + 1) & indexMask) {
+            int record = index.getInt(4 * i) - 1;
+            if (record < 0) {
+                return -1;
+            }
+            if (records.getInt(record * RECORD + R_HASH) == hash && nameEquals(record, name)) {
+                return record;
+            }
+        }
+    }
+
+    /**
+     * Index the record unless its name is already there.
+     */
+    private void indexPut(int record, String name, int hash) {
+        int i = hash & indexMask;
+        for (int other; (other = index.getInt(4 * i) - 1) >= 0; i = (i + 1) & indexMask) {
+            if (records.getInt(other * RECORD + R_HASH) == hash && nameEquals(other, name)) {
+                return;
+            }
+        }
+        index.putInt(4 * i, record + 1);
+    }
+
+    /**
+     * Remove the record from the index if it is the indexed one
+     * for its name, shifting later entries back into the hole.
+     */
+    private void indexRemove(int record) {
+        int hash = records.getInt(record * RECORD + R_HASH);
+        int i = hash & indexMask;
+        while (true) {
+            int entry = index.getInt(4 * i) - 1;
+            if (entry < 0) {
+                return;
+            }
+            if (entry == record) {
+                break;
+            }
+            i = (i + 1) & indexMask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & indexMask;
+            int entry = index.getInt(4 * j) - 1;
+            if (entry < 0) {
+                break;
+            }
+            int home = records.getInt(entry * RECORD + R_HASH) & indexMask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                index.putInt(4 * i, entry + 1);
+                i = j;
+            }
+        }
+        index.putInt(4 * i, 0);
+    }
+
+}
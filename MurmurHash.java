@@ -0,0 +1,52 @@
+/**
+ * Seeded Murmur3-style hash over the chars of a name.
+ * Does not allocate, so it is the default for CBlockChain.
+ */
+public class MurmurHash implements HashStrategy {
+
+    private static final int DEFAULT_SEED = 0x9747b28c;
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private final int seed;
+
+    public MurmurHash() {
+        this(DEFAULT_SEED);
+    }
+
+    public MurmurHash(int seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Mix two chars at a time into the hash,
+     * then apply the Murmur3 finalizer.
+     */
+    public int hash(String key) {
+        int h = seed;
+        int length = key.length();
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            int k = key.charAt(i) | (key.charAt(i + 1) << 16);
+            h ^= mixK(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        if (i < length) {
+            h ^= mixK(key.charAt(i));
+        }
+        h ^= length * 2;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= C1;
+        k = Integer.rotateLeft(k, 15);
+        return k * C2;
+    }
+
+}
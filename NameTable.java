@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+/**
+ * Interns names to small dense int ids.
+ * Each name is hashed once, on intern or lookup; after that its id
+ * indexes plain arrays. Released ids are reused, so ids stay below the
+ * number of names interned at once. Each slot packs a name's hash in
+ * its high 32 bits and id + 1 in its low 32 (0 is empty), so a probe
+ * reads one long per slot; collisions are probed linearly and removals
+ * shift later entries back as in OpenCBlockChain.
+ */
+public class NameTable {
+
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private String[] names;
+    private int[] hashes;
+    private long[] slots;
+    private int mask;
+    private int[] free;
+    private int freeCount;
+    private int nextId;
+    private int size;
+    private final HashStrategy hasher;
+
+    public NameTable(int capacity) {
+        this(capacity, new MurmurHash());
+    }
+
+    /**
+     * Same as above, hashing names with the given strategy.
+     */
+    public NameTable(int capacity, HashStrategy hasher) {
+        this.hasher = hasher;
+        int length = Integer.highestOneBit(Math.max(2, (int) (capacity / MAX_LOAD_FACTOR)) - 1) << 1;
+        this.slots = new long[length];
+        this.mask = length - 1;
+        this.names = new String[Math.max(1, capacity)];
+        this.hashes = new int[names.length];
+        this.free = new int[16];
+    }
+
+    private int hash(String name) {
+        int h = hasher.hash(name);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return the id of name, or -1 if it is not interned.
+     */
+    public int id(String name) {
+        int h = hash(name);
+        for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if ((int) (slots[i] >>> 32) == h && names[(int) slots[i] - 1].equals(name)) {
+                return (int) slots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the id of name, giving it one if it has none.
+     */
+    public int intern(String name) {
+        int h = hash(name);
+        int i = h & mask;
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            if ((int) (slots[i] >>> 32) == h && names[(int) slots[i] - 1].equals(name)) {
+                return (int) slots[i] - 1;
+            }
+        }
+        int id = freeCount > 0 ? free[--freeCount] : nextId++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, 2 * id);
+            hashes = Arrays.copyOf(hashes, 2 * id);
+        }
+        names[id] = name;
+        hashes[id] = h;
+        slots[i] = slot(h, id);
+        size++;
+        if (size > MAX_LOAD_FACTOR * slots.length) {
+            grow();
+        }
+        return id;
+    }
+
+    /**
+     * Return the name with the given id, or null if the id is not in use.
+     */
+    public String name(int id) {
+        return id >= 0 && id < nextId ? names[id] : null;
+    }
+
+    /**
+     * Forget the name with the given id; the id may be handed out again.
+     * Finds the slot by comparing ids, without touching the name.
+     */
+    public void release(int id) {
+        if (name(id) == null) {
+            return;
+        }
+        long slot = slot(hashes[id], id);
+        int i = hashes[id] & mask;
+        while (slots[i] != slot) {
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == 0) {
+                break;
+            }
+            // Move j back into the hole unless its home slot lies in (i, j].
+            int home = (int) (slots[j] >>> 32) & mask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = 0;
+        names[id] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, 2 * freeCount);
+        }
+        free[freeCount++] = id;
+        size--;
+    }
+
+    /**
+     * Return the number of interned names.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return one more than the highest id handed out so far.
+     */
+    public int idLimit() {
+        return nextId;
+    }
+
+    /**
+     * Return the number of interned names per slot.
+     */
+    public double loadFactor() {
+        return (double) size / slots.length;
+    }
+
+    /**
+     * Return how many slots a lookup of the name with the given id
+     * inspects, or 0 if the id is not in use. Stops at an empty slot,
+     * so a scan racing a change finishes with 0 instead of spinning.
+     */
+    public int probeLength(int id) {
+        if (name(id) == null) {
+            return 0;
+        }
+        long[] slots = this.slots;
+        int mask = slots.length - 1;
+        long slot = slot(hashes[id], id);
+        int i = hashes[id] & mask;
+        for (int probes = 1; probes <= slots.length && slots[i] != 0; probes++) {
+            if (slots[i] == slot) {
+                return probes;
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    private static long slot(int hash, int id) {
+        return (long) hash << 32 | (id + 1);
+    }
+
+    /**
+     * Double the slot array and reinsert every id.
+     */
+    private void grow() {
+        long[] oldSlots = slots;
+        slots = new long[oldSlots.length * 2];
+        mask = slots.length - 1;
+        for (long slot : oldSlots) {
+            if (slot != 0) {
+                int i = (int) (slot >>> 32) & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = slot;
+            }
+        }
+    }
+
+}
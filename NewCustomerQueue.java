@@ -1,12 +1,100 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 public class NewCustomerQueue {
-    private final Customer[] array;
-    private final CBlockChain table;
+    /**
+     * Smallest heap array length. The arrays start this long (or at
+     * capacity, if smaller) and double as Customers arrive, so a queue
+     * costs memory for what it holds rather than what it may hold.
+     */
+    private static final int MIN_LENGTH = 16;
+
+    private final int capacity;
+    private Customer[] array;
+    /**
+     * Customer.key() of array[i], kept alongside so sifts compare
+     * longs instead of dereferencing each Customer.
+     */
+    private long[] keys;
+    /**
+     * True while array and keys are shared with a QueueSnapshot: the
+     * next change copies them first and leaves the snapshot's alone.
+     */
+    private boolean shared;
+    private final CustomerIndex table;
+    private final int arity;
+    private int size;
+    /**
+     * Levels moved by swim and sink, counted only when
+     * CreditUnionMetrics.ENABLED.
+     */
+    private long siftSteps;
+    /**
+     * Ends of the list of queued Customers in time_in order, linked
+     * through the Customers themselves; only kept when trackArrivals.
+     */
+    private final boolean trackArrivals;
+    private Customer oldest;
+    private Customer newest;
+    /**
+     * Aggregates over the waiting Customers, kept up to date by every
+     * change so stats() is O(1). The queue has one writer, so they are
+     * guarded by a sequence lock: statsVersion is odd while the writer
+     * is changing them, and readers retry if it moved under them.
+     */
+    private static final VarHandle STATS_VERSION;
+    static {
+        try {
+            STATS_VERSION = MethodHandles.lookup().findVarHandle(NewCustomerQueue.class, "statsVersion", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    private int statsVersion;
+    private int statsCount;
+    private long totalInvestment;
+    private final int[] buckets = new int[QueueStats.BUCKETS];
 
     public NewCustomerQueue(int capacity) {
-        this.array = new Customer[capacity];
-        this.table = new CBlockChain(capacity);
+        this(capacity, new CBlockChain(capacity));
+    }
+
+    /**
+     * Same as above, looking Customers up by name in the given index.
+     */
+    public NewCustomerQueue(int capacity, CustomerIndex table) {
+        this(capacity, table, 2);
+    }
+
+    /**
+     * Same as above with arity children per node, e.g. 4 or 8 for a
+     * shallower heap whose children share cache lines.
+     */
+    public NewCustomerQueue(int capacity, CustomerIndex table, int arity) {
+        this(capacity, table, arity, false);
+    }
+
+    /**
+     * Same as above; if trackArrivals, also keep Customers in time_in
+     * order for oldest() and expireOlderThan.
+     */
+    public NewCustomerQueue(int capacity, CustomerIndex table, int arity, boolean trackArrivals) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Arity must be at least 2: " + arity);
+        }
+        this.capacity = capacity;
+        this.array = new Customer[Math.min(capacity, MIN_LENGTH)];
+        this.keys = new long[array.length];
+        this.table = table;
+        this.arity = arity;
+        this.trackArrivals = trackArrivals;
     }
 
     /**
@@ -15,20 +103,54 @@ public class NewCustomerQueue {
      * Return -1 if the customer could not be inserted.
      */
     public int insert(Customer c) throws NoSuchAlgorithmException {
-        if (size() == array.length) {
+        if (size == capacity) {
             return -1;
         }
+        own();
+        ensureLength(size + 1);
         table.put(c);
-        c.setPosInQueue(size());
-        array[size()] = c;
-        while (true) {
-            if (c.compareTo(parent(c)) > 0) {
-                swap(parent(c), c);
-            } else {
+        link(c);
+        set(size, c);
+        swim(size++);
+        account(c.investment(), 1);
+        return c.posInQueue();
+    }
+
+    /**
+     * Insert many Customers at once, in order, until the queue is full.
+     * A large batch is placed at the end of the array and heap order
+     * is restored with one bottom-up O(n) pass; a small one is sifted
+     * in one Customer at a time.
+     * Return the number of Customers inserted.
+     */
+    public int insertAll(Collection<Customer> customers) throws NoSuchAlgorithmException {
+        int count = Math.min(customers.size(), capacity - size);
+        if (count == 0) {
+            return 0;
+        }
+        own();
+        ensureLength(size + count);
+        boolean rebuild = (long) count * log2(size + count) > size + count;
+        int inserted = 0;
+        for (Customer c : customers) {
+            if (inserted == count) {
                 break;
             }
+            table.put(c);
+            link(c);
+            set(size, c);
+            account(c.investment(), 1);
+            if (rebuild) {
+                size++;
+            } else {
+                swim(size++);
+            }
+            inserted++;
         }
-        return c.posInQueue();
+        if (rebuild) {
+            heapify();
+        }
+        return inserted;
     }
 
     /**
@@ -39,44 +161,10 @@ public class NewCustomerQueue {
     public Customer delMax() throws NoSuchAlgorithmException {
         if (isEmpty()) {
             return null;
-        } else if (size() == 1) {
-            Customer removed = getMax();
-            removed.setPosInQueue(-1);
-            table.remove(removed.name());
-            array[0] = null;
-            return removed;
         }
         Customer removed = getMax();
-        swap(array[0], array[size() - 1]);
-        array[size() - 1] = null;
-        Customer swim = array[0];
-        while (true) {
-            Customer left = left_child(swim);
-            Customer right = right_child(swim);
-            if (right == null && left == null) {
-                break;
-            } else if (right == null && left.compareTo(swim) > 0) {
-                swap(swim, left);
-            } else if (right != null && left != null) {
-                if (left.compareTo(right) > 0) {
-                    if (left.compareTo(swim) > 0) {
-                        swap(swim, left);
-                    } else {
-                        break;
-                    }
-                } else {
-                    if (right.compareTo(swim) > 0) {
-                        swap(swim, right);
-                    } else {
-                        break;
-                    }
-                }
-            } else {
-                break;
-            }
-        }
-        removed.setPosInQueue(-1);
-        table.remove(removed.name());
+        removeAt(0);
+        table.remove(removed);
         return removed;
     }
 
@@ -88,63 +176,359 @@ public class NewCustomerQueue {
     }
 
     /**
-     * Return the number of customers currently in the queue.
+     * Return the k greatest customers, greatest first, without changing
+     * the queue. Candidates are kept in a small heap of array indices
+     * seeded with the root: taking the best candidate adds its children,
+     * so only about k * arity slots are looked at, in O(k log k).
+     * Only reads the queue, so it may run alongside other readers.
      */
-    public int size() {
-        int customers = 0;
-        for (Customer customer : array) {
-            if (customer != null) {
-                customers++;
-            }
+    public List<Customer> topK(int k) {
+        int[] top = topIndices(keys, size, arity, k);
+        List<Customer> customers = new ArrayList<>(top.length);
+        for (int index : top) {
+            customers.add(array[index]);
         }
         return customers;
     }
 
+    /**
+     * Return the array indices of the k greatest keys of a heap laid
+     * out in keys[0, size), greatest first. See topK.
+     */
+    static int[] topIndices(long[] keys, int size, int arity, int k) {
+        k = Math.min(k, size);
+        if (k <= 0) {
+            return new int[0];
+        }
+        int[] top = new int[k];
+        int[] candidates = new int[k * (arity - 1) + 1];
+        int count = 1;
+        candidates[0] = 0;
+        for (int taken = 0; taken < k; taken++) {
+            int best = candidates[0];
+            top[taken] = best;
+            candidates[0] = candidates[--count];
+            siftCandidate(keys, candidates, count);
+            int first = arity * best + 1;
+            int end = Math.min(first + arity, size);
+            for (int child = first; child < end; child++) {
+                int i = count++;
+                while (i > 0 && keys[candidates[(i - 1) / 2]] < keys[child]) {
+                    candidates[i] = candidates[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                candidates[i] = child;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Move candidates[0] down the binary candidate heap of count indices.
+     */
+    private static void siftCandidate(long[] keys, int[] candidates, int count) {
+        int i = 0;
+        int index = candidates[0];
+        while (2 * i + 1 < count) {
+            int child = 2 * i + 1;
+            if (child + 1 < count && keys[candidates[child + 1]] > keys[candidates[child]]) {
+                child++;
+            }
+            if (keys[candidates[child]] <= keys[index]) {
+                break;
+            }
+            candidates[i] = candidates[child];
+            i = child;
+        }
+        candidates[i] = index;
+    }
+
+    /**
+     * Return the number of customers with lo <= investment <= hi,
+     * without changing the queue. A customer's children never have a
+     * higher investment, so subtrees below lo are skipped and only the
+     * customers with investment >= lo are visited.
+     * Only reads the queue, so it may run alongside other readers.
+     */
+    public int countInRange(int lo, int hi) {
+        return countInRange(keys, size, arity, lo, hi);
+    }
+
+    /**
+     * Same as above over a heap laid out in keys[0, size).
+     */
+    static int countInRange(long[] keys, int size, int arity, int lo, int hi) {
+        if (size == 0 || lo > hi) {
+            return 0;
+        }
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        int count = 0;
+        while (top > 0) {
+            int index = stack[--top];
+            int investment = (int) (keys[index] >> 32);
+            if (investment < lo) {
+                continue;
+            }
+            if (investment <= hi) {
+                count++;
+            }
+            int first = arity * index + 1;
+            int end = Math.min(first + arity, size);
+            if (top + arity > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length + arity);
+            }
+            for (int child = first; child < end; child++) {
+                stack[top++] = child;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the count, total and histogram of the waiting customers'
+     * investments, all as of one moment. O(1): the aggregates are kept
+     * up to date by every change rather than computed from the heap.
+     * Safe to call from any thread while the queue is being changed;
+     * it retries rather than blocking the writer.
+     */
+    public QueueStats stats() {
+        int[] copy = new int[QueueStats.BUCKETS];
+        while (true) {
+            int version = (int) STATS_VERSION.getAcquire(this);
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int count = statsCount;
+            long total = totalInvestment;
+            System.arraycopy(buckets, 0, copy, 0, copy.length);
+            VarHandle.loadLoadFence();
+            if ((int) STATS_VERSION.getAcquire(this) == version) {
+                return new QueueStats(count, total, copy);
+            }
+        }
+    }
+
+    /**
+     * Return an immutable view of the queue as it is now, in O(1).
+     * The snapshot shares the heap arrays; the next change to the queue
+     * copies the occupied part of them (once per snapshot, in O(size))
+     * instead of writing over the snapshot's, so later changes never
+     * show through. Call
+     * from the queue's writer; the snapshot may then be handed to and
+     * read from any thread.
+     */
+    public QueueSnapshot snapshot() {
+        shared = true;
+        return new QueueSnapshot(array, keys, size, arity,
+                new QueueStats(statsCount, totalInvestment, buckets.clone()));
+    }
+
+    /**
+     * Copy array and keys before a change if a snapshot shares them.
+     * The copy is sized to the queue, not its capacity, and grows
+     * again on demand.
+     */
+    private void own() {
+        if (shared) {
+            resize(size + (size >> 1));
+        }
+    }
+
+    /**
+     * Grow array and keys to hold at least length Customers.
+     */
+    private void ensureLength(int length) {
+        if (length > array.length) {
+            resize(Math.max(length, 2 * array.length));
+        }
+    }
+
+    /**
+     * Move the Customers to new arrays of about length slots,
+     * no fewer than size and no more than capacity.
+     */
+    private void resize(int length) {
+        length = Math.min(capacity, Math.max(Math.max(length, MIN_LENGTH), size));
+        Customer[] newArray = new Customer[length];
+        long[] newKeys = new long[length];
+        System.arraycopy(array, 0, newArray, 0, size);
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        array = newArray;
+        keys = newKeys;
+        shared = false;
+    }
+
+    /**
+     * Return the total investment of the waiting customers.
+     * For the queue's own thread; other threads use stats().
+     */
+    public long totalInvestment() {
+        return totalInvestment;
+    }
+
+    /**
+     * Investment of the customer at index, as of its last key update.
+     */
+    private int investment(int index) {
+        return (int) (keys[index] >> 32);
+    }
+
+    /**
+     * Add (delta 1) or remove (delta -1) one investment from the aggregates.
+     */
+    private void account(int investment, int delta) {
+        beginStats();
+        statsCount += delta;
+        totalInvestment += (long) delta * investment;
+        buckets[QueueStats.bucket(investment)] += delta;
+        endStats();
+    }
+
+    /**
+     * Move one waiting customer's investment in the aggregates.
+     */
+    private void reaccount(int from, int to) {
+        beginStats();
+        totalInvestment += (long) to - from;
+        buckets[QueueStats.bucket(from)]--;
+        buckets[QueueStats.bucket(to)]++;
+        endStats();
+    }
+
+    private void beginStats() {
+        STATS_VERSION.setRelease(this, statsVersion + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endStats() {
+        STATS_VERSION.setRelease(this, statsVersion + 1);
+    }
+
+    /**
+     * Return the number of customers currently in the queue.
+     */
+    public int size() {
+        return size;
+    }
+
     /**
      * Return true if the queue is empty; false else.
      */
     public boolean isEmpty() {
-        return size() == 0;
+        return size == 0;
+    }
+
+    /**
+     * Return the number of children per node.
+     */
+    public int arity() {
+        return arity;
     }
 
     /**
-     * Swaps the two given customers.
+     * Take the customer at index out of the heap: the last customer
+     * fills the hole and is moved up or down to restore heap order.
      */
-    private void swap(Customer parent, Customer child) {
-        int index = child.posInQueue();
-        child.setPosInQueue(parent.posInQueue());
-        parent.setPosInQueue(index);
-        array[child.posInQueue()] = child;
-        array[parent.posInQueue()] = parent;
+    private void removeAt(int index) {
+        own();
+        Customer removed = array[index];
+        account(investment(index), -1);
+        int last = --size;
+        if (index != last) {
+            set(index, array[last]);
+            array[last] = null;
+            sink(swim(index));
+        } else {
+            array[last] = null;
+        }
+        removed.setPosInQueue(-1);
+        unlink(removed);
     }
 
     /**
-     * Returns the parent of the given customer index.
+     * Store Customer c and its keys at index.
      */
-    private Customer parent(Customer c) {
-        return array[(c.posInQueue() - 1) / 2];
+    private void set(int index, Customer c) {
+        array[index] = c;
+        keys[index] = c.key();
+        c.setPosInQueue(index);
     }
 
     /**
-     * Returns the left child of the given customer index.
+     * Return true if the customer at i is greater than the one at j:
+     * a higher investment, or the same investment and an earlier arrival.
      */
-    private Customer left_child(Customer c) {
-        int index = 2 * c.posInQueue() + 1;
-        if (index >= size()) {
-            return null;
+    private boolean greater(int i, int j) {
+        return keys[i] > keys[j];
+    }
+
+    /**
+     * Move the customer at index up while it is greater than its parent.
+     * Return its final index.
+     */
+    private int swim(int index) {
+        Customer c = array[index];
+        while (index > 0) {
+            int parent = (index - 1) / arity;
+            if (!greater(index, parent)) {
+                break;
+            }
+            set(index, array[parent]);
+            set(parent, c);
+            index = parent;
+            if (CreditUnionMetrics.ENABLED) {
+                siftSteps++;
+            }
         }
-        return array[index];
+        return index;
     }
 
     /**
-     * Returns the right child of the given customer index.
+     * Move the customer at index down while one of its children is
+     * greater than it. On a tie between children the later one is taken.
      */
-    private Customer right_child(Customer c) {
-        int index = 2 * c.posInQueue() + 2;
-        if (index >= size()) {
-            return null;
+    private void sink(int index) {
+        Customer c = array[index];
+        while (true) {
+            int first = arity * index + 1;
+            if (first >= size) {
+                break;
+            }
+            int child = first;
+            int end = Math.min(first + arity, size);
+            for (int i = first + 1; i < end; i++) {
+                if (!greater(child, i)) {
+                    child = i;
+                }
+            }
+            if (!greater(child, index)) {
+                break;
+            }
+            set(index, array[child]);
+            set(child, c);
+            index = child;
+            if (CreditUnionMetrics.ENABLED) {
+                siftSteps++;
+            }
         }
-        return array[index];
+    }
+
+    /**
+     * Return the number of levels Customers have moved up or down
+     * the heap so far; always 0 unless metrics are enabled.
+     */
+    public long siftSteps() {
+        return siftSteps;
+    }
+
+    /**
+     * Return the name index.
+     */
+    CustomerIndex index() {
+        return table;
     }
 
     /**
@@ -163,58 +547,24 @@ public class NewCustomerQueue {
         if (removed == null) {
             return null;
         }
-        int index = removed.posInQueue();
-        if (size() == 1) {
-            removed.setPosInQueue(-1);
-            table.remove(removed.name());
-            array[0] = null;
-            return removed;
-        } else if (index == size() - 1) {
-            removed.setPosInQueue(-1);
-            table.remove(removed.name());
-            array[size() - 1] = null;
-            return removed;
-        }
-        swap(array[index], array[size() - 1]);
-        array[size() - 1] = null;
-        Customer swim = array[index];
-        while (true) {
-            if (swim.compareTo(parent(swim)) > 0) {
-                swap(parent(swim), swim);
-            } else {
-                break;
-            }
-        }
-        while (true) {
-            Customer left = left_child(swim);
-            Customer right = right_child(swim);
-            if (right == null && left == null) {
-                break;
-            } else if (right == null && left.compareTo(swim) > 0) {
-                swap(swim, left);
-            } else if (right != null && left != null) {
-                if (left.compareTo(right) > 0) {
-                    if (left.compareTo(swim) > 0) {
-                        swap(swim, left);
-                    } else {
-                        break;
-                    }
-                } else {
-                    if (right.compareTo(swim) > 0) {
-                        swap(swim, right);
-                    } else {
-                        break;
-                    }
-                }
-            } else {
-                break;
-            }
-        }
-        removed.setPosInQueue(-1);
-        table.remove(removed.name());
+        removeAt(removed.posInQueue());
+        table.remove(removed);
         return removed;
     }
 
+    /**
+     * Remove Customer c from the queue without looking it up by name.
+     * Return null if c isn't in the queue.
+     */
+    public Customer remove(Customer c) throws NoSuchAlgorithmException {
+        if (!contains(c)) {
+            return null;
+        }
+        removeAt(c.posInQueue());
+        table.remove(c);
+        return c;
+    }
+
     /**
      * Update the emergency level of the Customer
      * with name s to investment.
@@ -224,9 +574,209 @@ public class NewCustomerQueue {
         if (c == null) {
             return;
         }
+        update(c, investment);
+    }
+
+    /**
+     * Update the investment of a Customer in this queue and move it
+     * up or down from its current slot. The index is not touched.
+     * Queued Customers must be changed through here rather than
+     * Customer.setInvestment so the heap keys stay in sync.
+     */
+    public void update(Customer c, int investment) {
+        if (!contains(c)) {
+            return;
+        }
+        own();
+        reaccount(investment(c.posInQueue()), investment);
         c.setInvestment(investment);
-        remove(s);
-        insert(c);
+        keys[c.posInQueue()] = c.key();
+        sink(swim(c.posInQueue()));
+    }
+
+    /**
+     * Apply many investment updates, keyed by Customer name.
+     * When the batch is large relative to the queue, heap order is
+     * restored with one bottom-up pass instead of a sift per Customer.
+     * Return the number of Customers updated.
+     */
+    public int updateAll(Map<String, Integer> updates) throws NoSuchAlgorithmException {
+        boolean rebuild = (long) updates.size() * log2(size) > size;
+        int updated = 0;
+        for (Map.Entry<String, Integer> update : updates.entrySet()) {
+            Customer c = table.get(update.getKey());
+            if (c == null) {
+                continue;
+            }
+            if (rebuild) {
+                own();
+                reaccount(investment(c.posInQueue()), update.getValue());
+                c.setInvestment(update.getValue());
+                keys[c.posInQueue()] = c.key();
+            } else {
+                update(c, update.getValue());
+            }
+            updated++;
+        }
+        if (rebuild && updated > 0) {
+            heapify();
+        }
+        return updated;
+    }
+
+    /**
+     * Put Customers back in the given array order, e.g. from a snapshot.
+     * Only Customers with indexed[i] set are put in the index, so when
+     * a name repeats the same Customer as before can be found by name.
+     */
+    void restore(List<Customer> customers, boolean[] indexed) throws NoSuchAlgorithmException {
+        own();
+        ensureLength(Math.min(capacity, size + customers.size()));
+        for (int i = 0; i < customers.size() && size < capacity; i++) {
+            Customer c = customers.get(i);
+            if (indexed[i]) {
+                table.put(c);
+            }
+            set(size++, c);
+            account(c.investment(), 1);
+        }
+        heapify();
+        if (trackArrivals) {
+            List<Customer> byArrival = new ArrayList<>(Arrays.asList(array).subList(0, size));
+            byArrival.sort(Comparator.comparingLong(Customer::time_in));
+            for (Customer c : byArrival) {
+                link(c);
+            }
+        }
+    }
+
+    /**
+     * Return the queued Customer with the smallest time_in,
+     * or null if the queue is empty.
+     */
+    public Customer oldest() {
+        checkTrackArrivals();
+        return oldest;
+    }
+
+    /**
+     * Remove every Customer whose time_in is less than time_in and
+     * return them, oldest first. They are found from the front of the
+     * arrival order; if there are many, the rest of the heap is
+     * compacted and rebuilt in one pass instead of removing each.
+     */
+    public List<Customer> expireOlderThan(long time_in) throws NoSuchAlgorithmException {
+        checkTrackArrivals();
+        List<Customer> expired = new ArrayList<>();
+        for (Customer c = oldest; c != null && c.time_in() < time_in; c = c.later) {
+            expired.add(c);
+        }
+        if ((long) expired.size() * log2(size) <= size) {
+            for (Customer c : expired) {
+                remove(c);
+            }
+            return expired;
+        }
+        own();
+        oldest = expired.get(expired.size() - 1).later;
+        if (oldest == null) {
+            newest = null;
+        } else {
+            oldest.earlier = null;
+        }
+        for (Customer c : expired) {
+            account(investment(c.posInQueue()), -1);
+            array[c.posInQueue()] = null;
+            c.setPosInQueue(-1);
+            c.earlier = null;
+            c.later = null;
+            table.remove(c);
+        }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (array[i] != null) {
+                set(kept++, array[i]);
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            array[i] = null;
+        }
+        size = kept;
+        heapify();
+        return expired;
+    }
+
+    /**
+     * Append c to the arrival order, after the last Customer with a
+     * time_in no greater than its own. Arrivals come in time_in order,
+     * so this is normally the end.
+     */
+    private void link(Customer c) {
+        if (!trackArrivals) {
+            return;
+        }
+        Customer before = newest;
+        while (before != null && before.time_in() > c.time_in()) {
+            before = before.earlier;
+        }
+        Customer after = before == null ? oldest : before.later;
+        c.earlier = before;
+        c.later = after;
+        if (before == null) {
+            oldest = c;
+        } else {
+            before.later = c;
+        }
+        if (after == null) {
+            newest = c;
+        } else {
+            after.earlier = c;
+        }
+    }
+
+    private void unlink(Customer c) {
+        if (!trackArrivals) {
+            return;
+        }
+        if (c.earlier == null) {
+            oldest = c.later;
+        } else {
+            c.earlier.later = c.later;
+        }
+        if (c.later == null) {
+            newest = c.earlier;
+        } else {
+            c.later.earlier = c.earlier;
+        }
+        c.earlier = null;
+        c.later = null;
+    }
+
+    private void checkTrackArrivals() {
+        if (!trackArrivals) {
+            throw new IllegalStateException("Arrival order is not tracked");
+        }
+    }
+
+    /**
+     * Restore heap order over the whole array bottom-up in O(n).
+     */
+    private void heapify() {
+        for (int i = (size - 2) / arity; i >= 0; i--) {
+            sink(i);
+        }
+    }
+
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+
+    /**
+     * Return true if Customer c is currently in this queue.
+     */
+    private boolean contains(Customer c) {
+        int pos = c.posInQueue();
+        return pos >= 0 && pos < size && array[pos] == c;
     }
 
     /**
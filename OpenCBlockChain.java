@@ -0,0 +1,166 @@
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Open addressing alternative to CBlockChain.
+ * Customers sit directly in a slot array next to their cached hash
+ * codes, so there is no per-bucket list. Collisions are resolved by
+ * linear probing and removals shift later entries back instead of
+ * leaving tombstones.
+ */
+public class OpenCBlockChain implements CustomerIndex {
+
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private int[] hashes;
+    private Customer[] slots;
+    private int mask;
+    private final HashStrategy hasher;
+    private int size;
+
+    /**
+     * Size the table so that capacity Customers fit
+     * without going over the maximum load factor.
+     */
+    public OpenCBlockChain(int capacity) {
+        this(capacity, new MurmurHash());
+    }
+
+    public OpenCBlockChain(int capacity, HashStrategy hasher) {
+        this.hasher = hasher;
+        int length = Integer.highestOneBit(Math.max(2, (int) (capacity / MAX_LOAD_FACTOR)) - 1) << 1;
+        this.hashes = new int[length];
+        this.slots = new Customer[length];
+        this.mask = length - 1;
+    }
+
+    /**
+     * Spread the hash so the low bits used for the slot depend on all bits.
+     */
+    private int hash(String name) {
+        int h = hasher.hash(name);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return the slot holding the name or -1 if it isn't there.
+     */
+    private int find(String name, int h) {
+        for (int i = h & mask; slots[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == h && slots[i].name().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Customer get(String name) throws NoSuchAlgorithmException {
+        int i = find(name, hash(name));
+        return i < 0 ? null : slots[i];
+    }
+
+    public void put(Customer c) throws NoSuchAlgorithmException {
+        int h = hash(c.name());
+        int i = h & mask;
+        for (; slots[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == h && slots[i].name().equals(c.name())) {
+                return;
+            }
+        }
+        hashes[i] = h;
+        slots[i] = c;
+        size++;
+        if (size > MAX_LOAD_FACTOR * slots.length) {
+            grow();
+        }
+    }
+
+    public Customer remove(String name) throws NoSuchAlgorithmException {
+        int i = find(name, hash(name));
+        if (i < 0) {
+            return null;
+        }
+        Customer removed = slots[i];
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == null) {
+                break;
+            }
+            // Move j back into the hole unless its home slot lies in (i, j].
+            int home = hashes[j] & mask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                hashes[i] = hashes[j];
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = null;
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the current number of Customers per slot.
+     */
+    public double loadFactor() {
+        return (double) size / slots.length;
+    }
+
+    /**
+     * Return the longest distance any Customer sits from its home slot.
+     * Scans the whole table.
+     */
+    public int maxProbeLength() {
+        int max = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                max = Math.max(max, ((i - (hashes[i] & mask)) & mask) + 1);
+            }
+        }
+        return max;
+    }
+
+    public int[] probeLengths() {
+        int[] lengths = new int[maxProbeLength()];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                lengths[(i - (hashes[i] & mask)) & mask]++;
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Double the table and reinsert every Customer.
+     */
+    private void grow() {
+        int[] oldHashes = hashes;
+        Customer[] oldSlots = slots;
+        hashes = new int[oldSlots.length * 2];
+        slots = new Customer[oldSlots.length * 2];
+        mask = slots.length - 1;
+        for (int k = 0; k < oldSlots.length; k++) {
+            if (oldSlots[k] != null) {
+                int i = oldHashes[k] & mask;
+                while (slots[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = oldHashes[k];
+                slots[i] = oldSlots[k];
+            }
+        }
+    }
+
+    /**
+     * Returns the underlying structure for testing
+     */
+    public Customer[] getArray() {
+        return slots;
+    }
+
+}
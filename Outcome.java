@@ -0,0 +1,22 @@
+/**
+ * Where a Customer went when they left the queue.
+ */
+public enum Outcome {
+
+    SENT_TO_BANK("sent to Bank."),
+    SEEN_BY_MANAGER("is seeing a manager.");
+
+    private final String message;
+
+    Outcome(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Return the log line for a Customer with this outcome.
+     */
+    public String describe(String name, int investment, long time_in) {
+        return "Customer " + name + ", " + investment + ", " + time_in + " " + message;
+    }
+
+}
@@ -0,0 +1,25 @@
+/**
+ * Receives an event each time CreditUnion routes a Customer.
+ */
+public interface OutcomeSink {
+
+    /**
+     * Discards every event, e.g. for benchmarks.
+     */
+    OutcomeSink NONE = (c, outcome) -> { };
+
+    /**
+     * Prints each event to System.out as it happens, the way
+     * CreditUnion always has.
+     */
+    OutcomeSink CONSOLE = (c, outcome) ->
+            System.out.println(outcome.describe(c.name(), c.investment(), c.time_in()));
+
+    /**
+     * Record that Customer c left with the given outcome.
+     * The Customer may be reused once this returns, so any fields
+     * needed later must be copied out here.
+     */
+    void publish(Customer c, Outcome outcome);
+
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Customers waiting in a NewCustomerQueue at one moment, from
+ * NewCustomerQueue.snapshot. Holds the queue's heap arrays as they
+ * were; the queue copies them before its next change, so a snapshot
+ * never changes and can be read from any thread without locking.
+ * Investments are read from the heap keys, since a Customer's own
+ * investment may have changed since.
+ */
+public class QueueSnapshot {
+
+    private final Customer[] array;
+    private final long[] keys;
+    private final int size;
+    private final int arity;
+    private final QueueStats stats;
+
+    QueueSnapshot(Customer[] array, long[] keys, int size, int arity, QueueStats stats) {
+        this.array = array;
+        this.keys = keys;
+        this.size = size;
+        this.arity = arity;
+        this.stats = stats;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Return the count, total and investment histogram as of the snapshot.
+     */
+    public QueueStats stats() {
+        return stats;
+    }
+
+    /**
+     * Return the names of the k Customers who would be seen next,
+     * next first, in O(k log k).
+     */
+    public List<String> topK(int k) {
+        int[] top = NewCustomerQueue.topIndices(keys, size, arity, k);
+        List<String> names = new ArrayList<>(top.length);
+        for (int index : top) {
+            names.add(array[index].name());
+        }
+        return names;
+    }
+
+    /**
+     * Return the names of all the Customers in the order they would
+     * be seen, in O(n log n).
+     */
+    public List<String> ordered() {
+        return topK(size);
+    }
+
+    /**
+     * Return the number of Customers with lo <= investment <= hi.
+     */
+    public int countInRange(int lo, int hi) {
+        return NewCustomerQueue.countInRange(keys, size, arity, lo, hi);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Aggregates over the Customers waiting in a NewCustomerQueue at one
+ * moment: how many, their total investment, and how many fall in each
+ * power-of-two investment bucket. Bucket 0 holds investments <= 0 and
+ * bucket i > 0 holds investments in [2^(i-1), 2^i).
+ */
+public class QueueStats {
+
+    public static final int BUCKETS = 32;
+
+    private final int count;
+    private final long totalInvestment;
+    private final int[] buckets;
+
+    QueueStats(int count, long totalInvestment, int[] buckets) {
+        this.count = count;
+        this.totalInvestment = totalInvestment;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Return the bucket investment falls in.
+     */
+    public static int bucket(int investment) {
+        return investment <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(investment);
+    }
+
+    /**
+     * Return the smallest positive investment in bucket i.
+     */
+    public static long bucketLow(int i) {
+        return i == 0 ? Long.MIN_VALUE : 1L << (i - 1);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long totalInvestment() {
+        return totalInvestment;
+    }
+
+    /**
+     * Return the mean investment, or 0 if no one is waiting.
+     */
+    public double meanInvestment() {
+        return count == 0 ? 0 : (double) totalInvestment / count;
+    }
+
+    /**
+     * Return the number of Customers in bucket i.
+     */
+    public int bucketCount(int i) {
+        return buckets[i];
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format("%d waiting, total %d, mean %.1f", count,
+                totalInvestment, meanInvestment()));
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] != 0) {
+                s.append(i == 0 ? ", <=0: " : ", " + bucketLow(i) + "+: ").append(buckets[i]);
+            }
+        }
+        return s.toString();
+    }
+
+}
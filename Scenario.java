@@ -0,0 +1,113 @@
+/**
+ * Settings for one simulated day at a branch. Times are in minutes.
+ * Defaults: an arrival every minute, investments uniform in
+ * [0, cr_threshold * 1.1), 10 minute services, an emergency every
+ * 5 minutes and customers who give up after an hour on average.
+ */
+public class Scenario {
+
+    private final String name;
+    private final int capacity;
+    private final int cr_threshold;
+    private final int managers;
+    private final double minutes;
+    private Distribution arrivals = Distribution.exponential(1);
+    private Distribution investments;
+    private Distribution service = Distribution.exponential(10);
+    private Distribution emergencies = Distribution.exponential(5);
+    private Distribution patience = Distribution.exponential(60);
+    private long seed = 1;
+
+    public Scenario(String name, int capacity, int cr_threshold, int managers, double minutes) {
+        this.name = name;
+        this.capacity = capacity;
+        this.cr_threshold = cr_threshold;
+        this.managers = managers;
+        this.minutes = minutes;
+        this.investments = Distribution.uniform(0, cr_threshold * 1.1);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int cr_threshold() {
+        return cr_threshold;
+    }
+
+    public int managers() {
+        return managers;
+    }
+
+    public double minutes() {
+        return minutes;
+    }
+
+    public Distribution arrivals() {
+        return arrivals;
+    }
+
+    /**
+     * Minutes between one arrival and the next.
+     */
+    public void setArrivals(Distribution arrivals) {
+        this.arrivals = arrivals;
+    }
+
+    public Distribution investments() {
+        return investments;
+    }
+
+    public void setInvestments(Distribution investments) {
+        this.investments = investments;
+    }
+
+    public Distribution service() {
+        return service;
+    }
+
+    /**
+     * Minutes a manager spends with one customer.
+     */
+    public void setService(Distribution service) {
+        this.service = service;
+    }
+
+    public Distribution emergencies() {
+        return emergencies;
+    }
+
+    /**
+     * Minutes between emergencies anywhere in the queue.
+     */
+    public void setEmergencies(Distribution emergencies) {
+        this.emergencies = emergencies;
+    }
+
+    public Distribution patience() {
+        return patience;
+    }
+
+    /**
+     * Minutes a customer waits before walking out.
+     */
+    public void setPatience(Distribution patience) {
+        this.patience = patience;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * Seed for every random draw, including handle_emergency's.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+}
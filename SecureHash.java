@@ -0,0 +1,63 @@
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Keyed SHA-256 hash for deployments worried about hash-flooding.
+ * A secret key is mixed in before the name so bucket indices
+ * cannot be predicted from outside. The digest and buffers are
+ * reused, so an instance must not be shared between threads.
+ */
+public class SecureHash implements HashStrategy {
+
+    private static final int KEY_LENGTH = 16;
+
+    private final MessageDigest digest;
+    private final byte[] key;
+    private final byte[] out = new byte[32];
+    private byte[] buffer = new byte[64];
+
+    /**
+     * Use a random secret key.
+     */
+    public SecureHash() throws NoSuchAlgorithmException {
+        this(randomKey());
+    }
+
+    public SecureHash(byte[] key) throws NoSuchAlgorithmException {
+        this.digest = MessageDigest.getInstance("SHA-256");
+        this.key = key.clone();
+    }
+
+    /**
+     * Hash key || name and take the first four bytes of the digest.
+     */
+    public int hash(String name) {
+        int length = name.length() * 2;
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            buffer[2 * i] = (byte) (c >>> 8);
+            buffer[2 * i + 1] = (byte) c;
+        }
+        digest.update(key);
+        digest.update(buffer, 0, length);
+        try {
+            digest.digest(out, 0, out.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return (out[0] & 0xff) << 24 | (out[1] & 0xff) << 16
+                | (out[2] & 0xff) << 8 | (out[3] & 0xff);
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+}
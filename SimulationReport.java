@@ -0,0 +1,92 @@
+/**
+ * Results of one BranchSimulation run.
+ * Wait times are minutes between arrival and seeing a manager.
+ */
+public class SimulationReport {
+
+    private final String scenario;
+    private final long events;
+    private final long wallNanos;
+    private final int served;
+    private final double[] waitPercentiles;
+    private final int processed;
+    private final int sentToBank;
+    private final int seenByManager;
+    private final int walkedOut;
+
+    /**
+     * waitPercentiles holds the p50, p90, p99 and max wait.
+     */
+    public SimulationReport(String scenario, long events, long wallNanos, int served, double[] waitPercentiles,
+                            int processed, int sentToBank, int seenByManager, int walkedOut) {
+        this.scenario = scenario;
+        this.events = events;
+        this.wallNanos = wallNanos;
+        this.served = served;
+        this.waitPercentiles = waitPercentiles.clone();
+        this.processed = processed;
+        this.sentToBank = sentToBank;
+        this.seenByManager = seenByManager;
+        this.walkedOut = walkedOut;
+    }
+
+    public String scenario() {
+        return scenario;
+    }
+
+    public long events() {
+        return events;
+    }
+
+    /**
+     * Simulated events per second of wall-clock time.
+     */
+    public double eventsPerSecond() {
+        return events * 1e9 / Math.max(1, wallNanos);
+    }
+
+    public int served() {
+        return served;
+    }
+
+    public double waitP50() {
+        return waitPercentiles[0];
+    }
+
+    public double waitP90() {
+        return waitPercentiles[1];
+    }
+
+    public double waitP99() {
+        return waitPercentiles[2];
+    }
+
+    public double waitMax() {
+        return waitPercentiles[3];
+    }
+
+    public int processed() {
+        return processed;
+    }
+
+    public int sentToBank() {
+        return sentToBank;
+    }
+
+    public int seenByManager() {
+        return seenByManager;
+    }
+
+    public int walkedOut() {
+        return walkedOut;
+    }
+
+    public String toString() {
+        return String.format("%s: %d events, %.0f events/s, served %d,"
+                        + " wait p50/p90/p99/max %.1f/%.1f/%.1f/%.1f min,"
+                        + " processed %d, sent to bank %d, seen by manager %d, walked out %d",
+                scenario, events, eventsPerSecond(), served, waitP50(), waitP90(), waitP99(), waitMax(),
+                processed, sentToBank, seenByManager, walkedOut);
+    }
+
+}
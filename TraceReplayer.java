@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams a customer event trace (see TraceWriter) through a
+ * CreditUnion without loading it into memory.
+ * A reader thread maps the file a window at a time and parses records
+ * straight out of the mapping into a fixed pool of batches; the
+ * calling thread applies each full batch to the CreditUnion and hands
+ * it back. When the CreditUnion falls behind, the reader waits for a
+ * free batch, so memory stays at the window plus the pool.
+ * Emergencies are applied at the traced investment, and journaled
+ * like any other call if the CreditUnion has a journal.
+ */
+public class TraceReplayer {
+
+    public enum Format { CSV, BINARY }
+
+    private static final long DEFAULT_WINDOW = 64 << 20;
+    private static final int DEFAULT_BATCH = 4096;
+    private static final int DEFAULT_BATCHES = 8;
+    /**
+     * Recently seen names, so a Customer's later events reuse the
+     * String made for their arrival instead of decoding it again.
+     */
+    private static final int NAME_CACHE = 1 << 14;
+    private static final int BINARY_HEADER = 7;
+
+    private static final byte[] PROCESS = "PROCESS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEE_NEXT = "SEE_NEXT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMERGENCY = "EMERGENCY".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WALK_OUT = "WALK_OUT".getBytes(StandardCharsets.US_ASCII);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final CreditUnion cu;
+    private final int batchSize;
+    private final int batchCount;
+    private final long windowSize;
+
+    /**
+     * A run of parsed records.
+     */
+    private static class Batch {
+        final byte[] ops;
+        final int[] investments;
+        final String[] names;
+        int size;
+
+        Batch(int capacity) {
+            ops = new byte[capacity];
+            investments = new int[capacity];
+            names = new String[capacity];
+        }
+    }
+
+    private static final Batch END = new Batch(0);
+
+    public TraceReplayer(CreditUnion cu) {
+        this(cu, DEFAULT_BATCH, DEFAULT_BATCHES);
+    }
+
+    /**
+     * Same as above, with batchCount batches of batchSize records
+     * between the reader and the CreditUnion.
+     */
+    public TraceReplayer(CreditUnion cu, int batchSize, int batchCount) {
+        this(cu, batchSize, batchCount, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Same as above, mapping windowSize bytes of the trace at a time.
+     * A record must fit in one window.
+     */
+    TraceReplayer(CreditUnion cu, int batchSize, int batchCount, long windowSize) {
+        if (batchSize < 1 || batchCount < 1) {
+            throw new IllegalArgumentException("Need at least one batch of one record");
+        }
+        this.cu = cu;
+        this.batchSize = batchSize;
+        this.batchCount = batchCount;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Replay every record in trace, in order, and report the rate.
+     */
+    public Report replay(Path trace, Format format)
+            throws IOException, InterruptedException, NoSuchAlgorithmException {
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(batchCount);
+        BlockingQueue<Batch> full = new ArrayBlockingQueue<>(batchCount + 1);
+        for (int i = 0; i < batchCount; i++) {
+            free.add(new Batch(batchSize));
+        }
+        Reader reader = new Reader(trace, format, free, full);
+        Thread thread = new Thread(reader, "trace-reader");
+        long start = System.nanoTime();
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        thread.start();
+        long records = 0;
+        try {
+            for (Batch batch = full.take(); batch != END; batch = full.take()) {
+                apply(batch);
+                records += batch.size;
+                free.put(batch);
+            }
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+        Throwable failure = reader.failure;
+        if (failure instanceof IOException e) {
+            throw e;
+        } else if (failure instanceof RuntimeException e) {
+            throw e;
+        } else if (failure instanceof Error e) {
+            throw e;
+        } else if (failure != null) {
+            throw new IOException("Reading " + trace + " failed", failure);
+        }
+        allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        return new Report(records, reader.bytes, System.nanoTime() - start, reader.allocated, allocated);
+    }
+
+    private void apply(Batch batch) throws NoSuchAlgorithmException {
+        for (int i = 0; i < batch.size; i++) {
+            String name = batch.names[i];
+            switch (batch.ops[i]) {
+                case CreditUnionJournal.PROCESS -> cu.process(name, batch.investments[i]);
+                case CreditUnionJournal.SEE_NEXT -> cu.seeNext();
+                case CreditUnionJournal.EMERGENCY -> cu.handle_emergency(name, batch.investments[i]);
+                case CreditUnionJournal.WALK_OUT -> cu.walk_out(name);
+                default -> throw new IllegalStateException("Unknown op " + batch.ops[i]);
+            }
+        }
+    }
+
+    /**
+     * Maps the trace window by window and parses it into batches.
+     */
+    private class Reader implements Runnable {
+        private final Path trace;
+        private final Format format;
+        private final BlockingQueue<Batch> free;
+        private final BlockingQueue<Batch> full;
+        private final String[] cache = new String[NAME_CACHE];
+        /**
+         * Bytes of the name being decoded; grown for longer names.
+         */
+        private byte[] scratch = new byte[1 << 16];
+        private MappedByteBuffer window;
+        private long base;
+        private long length;
+        private Batch batch;
+        /**
+         * Whatever stopped the reader early, rethrown by replay.
+         */
+        volatile Throwable failure;
+        volatile long bytes;
+        volatile long allocated;
+
+        Reader(Path trace, Format format, BlockingQueue<Batch> free, BlockingQueue<Batch> full) {
+            this.trace = trace;
+            this.format = format;
+            this.free = free;
+            this.full = full;
+        }
+
+        public void run() {
+            long before = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            try (FileChannel channel = FileChannel.open(trace, StandardOpenOption.READ)) {
+                length = channel.size();
+                batch = free.take();
+                int p = map(channel, 0);
+                while (base + p < length) {
+                    int end = format == Format.BINARY ? binaryRecord(p) : csvRecord(p);
+                    if (end < 0) {
+                        p = map(channel, base + p);
+                        end = format == Format.BINARY ? binaryRecord(p) : csvRecord(p);
+                        if (end < 0) {
+                            throw new IOException("Truncated record at byte " + (base + p) + " of " + trace);
+                        }
+                    }
+                    p = end;
+                    if (batch.size == batchSize) {
+                        full.put(batch);
+                        batch = free.take();
+                        batch.size = 0;
+                    }
+                }
+                bytes = length;
+                full.put(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+                full.offer(END);
+            }
+        }
+
+        /**
+         * Map the window starting at file offset from;
+         * return the offset of from within it.
+         */
+        private int map(FileChannel channel, long from) throws IOException {
+            base = from;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(windowSize, length - from));
+            return 0;
+        }
+
+        /**
+         * Parse the binary record at p into the batch and return the
+         * offset after it, or -1 if it runs past the window.
+         */
+        private int binaryRecord(int p) throws IOException {
+            if (window.limit() - p < BINARY_HEADER) {
+                return -1;
+            }
+            int nameLength = window.getShort(p + 5) & 0xFFFF;
+            if (window.limit() - p < BINARY_HEADER + nameLength) {
+                return -1;
+            }
+            byte op = window.get(p);
+            add(op, window.getInt(p + 1),
+                    op == CreditUnionJournal.SEE_NEXT ? null : name(p + BINARY_HEADER, nameLength));
+            return p + BINARY_HEADER + nameLength;
+        }
+
+        /**
+         * Parse the CSV line at p into the batch and return the offset
+         * after it, or -1 if it runs past the window. The last line of
+         * the file need not end in a newline.
+         */
+        private int csvRecord(int p) throws IOException {
+            int limit = window.limit();
+            int end = p;
+            while (end < limit && window.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit && base + limit < length) {
+                return -1;
+            }
+            int next = end < limit ? end + 1 : end;
+            if (end > p && window.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end == p) {
+                return next;
+            }
+            int comma = field(p, end);
+            byte op;
+            if (matches(PROCESS, p, comma)) {
+                op = CreditUnionJournal.PROCESS;
+            } else if (matches(SEE_NEXT, p, comma)) {
+                add(CreditUnionJournal.SEE_NEXT, 0, null);
+                return next;
+            } else if (matches(EMERGENCY, p, comma)) {
+                op = CreditUnionJournal.EMERGENCY;
+            } else if (matches(WALK_OUT, p, comma)) {
+                op = CreditUnionJournal.WALK_OUT;
+            } else {
+                throw new IOException("Unknown event at byte " + (base + p) + " of " + trace);
+            }
+            if (comma == end) {
+                throw new IOException("Missing name at byte " + (base + p) + " of " + trace);
+            }
+            int nameEnd = field(comma + 1, end);
+            String name = name(comma + 1, nameEnd - comma - 1);
+            int investment = 0;
+            if (op != CreditUnionJournal.WALK_OUT) {
+                if (nameEnd == end) {
+                    throw new IOException("Missing investment at byte " + (base + p) + " of " + trace);
+                }
+                investment = parseInt(nameEnd + 1, end);
+            }
+            add(op, investment, name);
+            return next;
+        }
+
+        /**
+         * Return the offset of the next comma in [from, end), or end.
+         */
+        private int field(int from, int end) {
+            while (from < end && window.get(from) != ',') {
+                from++;
+            }
+            return from;
+        }
+
+        private boolean matches(byte[] token, int from, int end) {
+            if (end - from != token.length) {
+                return false;
+            }
+            for (int i = 0; i < token.length; i++) {
+                if (window.get(from + i) != token[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int parseInt(int from, int end) throws IOException {
+            boolean negative = from < end && window.get(from) == '-';
+            int i = negative ? from + 1 : from;
+            if (i == end) {
+                throw new IOException("Bad investment at byte " + (base + from) + " of " + trace);
+            }
+            long limit = negative ? 1L + Integer.MAX_VALUE : Integer.MAX_VALUE;
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = window.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IOException("Bad investment at byte " + (base + from) + " of " + trace);
+                }
+                value = 10 * value + digit;
+                if (value > limit) {
+                    throw new IOException("Bad investment at byte " + (base + from) + " of " + trace);
+                }
+            }
+            return (int) (negative ? -value : value);
+        }
+
+        /**
+         * Decode the UTF-8 name at [from, from + length). ASCII names
+         * are looked up in the name cache first, comparing the mapped
+         * bytes with the cached String's chars, so a repeat costs no
+         * allocation.
+         */
+        private String name(int from, int length) {
+            int hash = 0;
+            boolean ascii = true;
+            for (int i = from; i < from + length; i++) {
+                byte b = window.get(i);
+                hash = 31 * hash + b;
+                ascii &= b >= 0;
+            }
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            window.get(from, scratch, 0, length);
+            if (!ascii) {
+                return new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE - 1);
+            String cached = cache[slot];
+            if (cached != null && cached.length() == length) {
+                int i = 0;
+                while (i < length && cached.charAt(i) == scratch[i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return cached;
+                }
+            }
+            String name = new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+            cache[slot] = name;
+            return name;
+        }
+
+        private void add(byte op, int investment, String name) {
+            int i = batch.size++;
+            batch.ops[i] = op;
+            batch.investments[i] = investment;
+            batch.names[i] = name;
+        }
+    }
+
+    /**
+     * Rate and allocation of one replay.
+     */
+    public static class Report {
+        private final long records;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final long parseAllocated;
+        private final long applyAllocated;
+
+        Report(long records, long bytes, long elapsedNanos, long parseAllocated, long applyAllocated) {
+            this.records = records;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.parseAllocated = parseAllocated;
+            this.applyAllocated = applyAllocated;
+        }
+
+        public long records() {
+            return records;
+        }
+
+        public double opsPerSecond() {
+            return records * 1e9 / elapsedNanos;
+        }
+
+        public double megabytesPerSecond() {
+            return bytes * 1e3 / elapsedNanos;
+        }
+
+        /**
+         * Bytes the reader allocated parsing, per GB of trace.
+         */
+        public double parseAllocatedPerGigabyte() {
+            return bytes == 0 ? 0 : parseAllocated * 1e9 / bytes;
+        }
+
+        /**
+         * Bytes allocated applying the records to the CreditUnion,
+         * e.g. new Customers, per GB of trace.
+         */
+        public double applyAllocatedPerGigabyte() {
+            return bytes == 0 ? 0 : applyAllocated * 1e9 / bytes;
+        }
+
+        public String toString() {
+            return String.format("%d records, %.0f ops/s, %.1f MB/s, allocated per GB: parse %.1f MB, apply %.1f MB",
+                    records, opsPerSecond(), megabytesPerSecond(),
+                    parseAllocatedPerGigabyte() / 1e6, applyAllocatedPerGigabyte() / 1e6);
+        }
+    }
+
+}
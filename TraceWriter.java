@@ -0,0 +1,80 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a customer event trace for TraceReplayer, as CSV lines
+ * (PROCESS,name,investment / SEE_NEXT / EMERGENCY,name,investment /
+ * WALK_OUT,name) or as binary records
+ * [byte op][int investment][short name length][UTF-8 name].
+ * An emergency's investment is the value it leaves the Customer at.
+ * Binary names are limited to MAX_NAME_BYTES of UTF-8.
+ */
+public class TraceWriter implements AutoCloseable {
+
+    /**
+     * The longest name, in UTF-8 bytes, a binary record's short
+     * length can hold.
+     */
+    public static final int MAX_NAME_BYTES = 0xFFFF;
+
+    private final DataOutputStream out;
+    private final TraceReplayer.Format format;
+
+    public TraceWriter(Path file, TraceReplayer.Format format) throws IOException {
+        this(Files.newOutputStream(file), format);
+    }
+
+    public TraceWriter(OutputStream out, TraceReplayer.Format format) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.format = format;
+    }
+
+    public void process(String name, int investment) throws IOException {
+        write(CreditUnionJournal.PROCESS, "PROCESS", name, investment);
+    }
+
+    public void seeNext() throws IOException {
+        write(CreditUnionJournal.SEE_NEXT, "SEE_NEXT", null, 0);
+    }
+
+    public void emergency(String name, int investment) throws IOException {
+        write(CreditUnionJournal.EMERGENCY, "EMERGENCY", name, investment);
+    }
+
+    public void walk_out(String name) throws IOException {
+        write(CreditUnionJournal.WALK_OUT, "WALK_OUT", name, 0);
+    }
+
+    private void write(byte op, String label, String name, int investment) throws IOException {
+        if (format == TraceReplayer.Format.BINARY) {
+            byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_NAME_BYTES) {
+                throw new IllegalArgumentException("Name of " + bytes.length + " bytes is longer than "
+                        + MAX_NAME_BYTES + " for a binary trace");
+            }
+            out.writeByte(op);
+            out.writeInt(investment);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            return;
+        }
+        StringBuilder line = new StringBuilder(label);
+        if (name != null) {
+            line.append(',').append(name);
+        }
+        if (op == CreditUnionJournal.PROCESS || op == CreditUnionJournal.EMERGENCY) {
+            line.append(',').append(investment);
+        }
+        out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+}